@@ -0,0 +1,16 @@
+import java.util.Map;
+
+/**
+ * Writes a batch of updated entries to the backend, on behalf of a WriteBehindCache.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface BatchWriter<K, V> {
+    /**
+     * Called by one thread at a time, with the latest value of every key updated since the previous batch.
+     * @param entries the entries to write, in no particular order. The map may contain a null key.
+     * @throws Exception if the batch could not be written. Its entries are retried with the next batch.
+     */
+    void write(Map<K, V> entries) throws Exception;
+}
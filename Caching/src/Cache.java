@@ -14,4 +14,31 @@ public interface Cache<K, V> {
      * @return The matching value for the given key
      */
     V get(K key, Function<K, V> dataRetrievalFunction);
+
+    /**
+     *  Caches the provided value for the key K, replacing the value cached so far if any.
+     * @param key The key of the value
+     * @param value The new value
+     * @throws UnsupportedOperationException if the cache only supports get, the default
+     */
+    default void put(K key, V value) {
+        throw new UnsupportedOperationException("This cache does not support put");
+    }
+
+    /**
+     *  Removes the value cached for the key K, if any. The next get will use its data retrieval function.
+     * @param key The key of the value to remove
+     * @throws UnsupportedOperationException if the cache only supports get, the default
+     */
+    default void invalidate(K key) {
+        throw new UnsupportedOperationException("This cache does not support invalidate");
+    }
+
+    /**
+     *  Removes every cached value.
+     * @throws UnsupportedOperationException if the cache only supports get, the default
+     */
+    default void invalidateAll() {
+        throw new UnsupportedOperationException("This cache does not support invalidateAll");
+    }
 }
@@ -1,43 +1,657 @@
-import java.util.HashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
+/**
+ * The default Cache implementation, optionally bounded by a total weight.
+ * Technical: the entries live in a ConcurrentHashMap, so reads never block. They are also chained in a doubly
+ * linked list from the least to the most recently used, guarded by the eviction lock.
+ * Reads only reorder the list when the lock is free (a missed reorder just makes the LRU approximate), while writes
+ * take the lock to add their weight and evict from the head of the list until the cache fits its budget again.
+ * With weak keys or soft values (see ReferenceMode), the garbage collector enqueues the references it clears, and the
+ * maintenance (writes, reads finding the lock free, cleanUp) drains the queue to remove their entries, never a scan.
+ * A LoadFailurePolicy can give the entries a time to live, and cache the failed loads with a backoff per key: such
+ * entries carry their deadline or their failure, checked by the reads against the clock only when present.
+ * Note 1: a weakly referenced key must not be referenced by its own value, or it is never collected.
+ */
 public class CacheManager<K, V> implements Cache<K, V> {
 
-    private final HashMap<K, V> _localCache;
+    /**
+     * Stands for the null key in the map, which does not accept nulls
+     */
+    private static final Object _nullKey = new Object();
+
+    /**
+     * Stands for the null value in the soft references, where null means collected
+     */
+    private static final Object _nullValue = new Object();
+
+    /**
+     * Returned by valueOf when the node holds no value: cleared by the garbage collector, or a failure without stale value
+     */
+    private static final Object _absent = new Object();
+
+    /**
+     * Deadline of the entries that never expire
+     */
+    private static final long _never = Long.MAX_VALUE;
+
+    private final ConcurrentHashMap<Object, Node<K, V>> _localCache;
+
+    /**
+     * The maximum total weight of the entries, Long.MAX_VALUE when unbounded
+     */
+    private final long _maximumWeight;
 
+    private final Weigher<K, V> _weigher;
+
+    /**
+     * Records hits, misses, loads and evictions. Disabled by default.
+     */
+    private final StatsCounter _statsCounter;
+
+    private final ReferenceMode _referenceMode;
+
+    private final LoadFailurePolicy _loadFailurePolicy;
+
+    /**
+     * Receives the key and value references the garbage collector cleared, null in the STRONG mode
+     */
+    private final ReferenceQueue<Object> _referenceQueue;
+
+    /**
+     * Guards the LRU list and the weighted size
+     */
+    private final ReentrantLock _evictionLock = new ReentrantLock();
+
+    /**
+     * Sentinel of the LRU list: its next node is the least recently used, its previous node the most recently used
+     */
+    private final Node<K, V> _lruHead = new Node<>(null, null, 0, _never, null);
+
+    /**
+     * Total weight of the cached entries. Written under the eviction lock.
+     */
+    private volatile long _weightedSize;
+
+    /**
+     * New unbounded instance of this class
+     */
     public CacheManager() {
-        _localCache = new HashMap<>();
+        this(Long.MAX_VALUE, (key, value) -> 1);
+    }
+
+    /**
+     * New unbounded instance of this class
+     * @param statsCounter records the activity of the cache, see ConcurrentStatsCounter
+     */
+    public CacheManager(StatsCounter statsCounter) {
+        this(Long.MAX_VALUE, (key, value) -> 1, statsCounter);
+    }
+
+    /**
+     * New unbounded instance of this class
+     * @param loadFailurePolicy how the failed loads and the null values are cached
+     */
+    public CacheManager(LoadFailurePolicy loadFailurePolicy) {
+        this(Long.MAX_VALUE, (key, value) -> 1, StatsCounter.disabled(), ReferenceMode.STRONG, loadFailurePolicy);
+    }
+
+    /**
+     * New unbounded instance of this class, whose entries the garbage collector can reclaim
+     * @param referenceMode how the keys and the values are referenced
+     */
+    public CacheManager(ReferenceMode referenceMode) {
+        this(referenceMode, StatsCounter.disabled());
+    }
+
+    /**
+     * New unbounded instance of this class, whose entries the garbage collector can reclaim
+     * @param referenceMode how the keys and the values are referenced
+     * @param statsCounter records the activity of the cache, see ConcurrentStatsCounter
+     */
+    public CacheManager(ReferenceMode referenceMode, StatsCounter statsCounter) {
+        this(Long.MAX_VALUE, (key, value) -> 1, statsCounter, referenceMode);
+    }
+
+    /**
+     * New instance of this class, evicting the least recently used entries above the maximum weight
+     * @param maximumWeight the budget of the cache, in the unit of the weigher
+     * @param weigher computes the weight of each entry when added
+     */
+    public CacheManager(long maximumWeight, Weigher<K, V> weigher) {
+        this(maximumWeight, weigher, StatsCounter.disabled());
+    }
+
+    /**
+     * New instance of this class, evicting the least recently used entries above the maximum weight
+     * @param maximumWeight the budget of the cache, in the unit of the weigher
+     * @param weigher computes the weight of each entry when added
+     * @param statsCounter records the activity of the cache, see ConcurrentStatsCounter
+     */
+    public CacheManager(long maximumWeight, Weigher<K, V> weigher, StatsCounter statsCounter) {
+        this(maximumWeight, weigher, statsCounter, ReferenceMode.STRONG);
+    }
+
+    /**
+     * New instance of this class, evicting the least recently used entries above the maximum weight
+     * @param maximumWeight the budget of the cache, in the unit of the weigher
+     * @param weigher computes the weight of each entry when added
+     * @param statsCounter records the activity of the cache, see ConcurrentStatsCounter
+     * @param referenceMode how the keys and the values are referenced
+     */
+    public CacheManager(long maximumWeight, Weigher<K, V> weigher, StatsCounter statsCounter, ReferenceMode referenceMode) {
+        this(maximumWeight, weigher, statsCounter, referenceMode, LoadFailurePolicy.none());
+    }
+
+    /**
+     * New instance of this class, evicting the least recently used entries above the maximum weight
+     * @param maximumWeight the budget of the cache, in the unit of the weigher
+     * @param weigher computes the weight of each entry when added
+     * @param statsCounter records the activity of the cache, see ConcurrentStatsCounter
+     * @param referenceMode how the keys and the values are referenced
+     * @param loadFailurePolicy how the failed loads and the null values are cached
+     */
+    public CacheManager(long maximumWeight, Weigher<K, V> weigher, StatsCounter statsCounter, ReferenceMode referenceMode,
+                        LoadFailurePolicy loadFailurePolicy) {
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException("The maximum weight cannot be negative");
+
+        _localCache = new ConcurrentHashMap<>();
+        _maximumWeight = maximumWeight;
+        _weigher = weigher;
+        _statsCounter = statsCounter;
+        _referenceMode = referenceMode;
+        _loadFailurePolicy = loadFailurePolicy;
+        _referenceQueue = referenceMode == ReferenceMode.STRONG ? null : new ReferenceQueue<>();
+        _lruHead._previous = _lruHead;
+        _lruHead._next = _lruHead;
     }
 
     /**
      *  Returns the cached value V linked to the provided key K.
      *  If not in the cache, the provided function will be used to retrieve the value. It will then be cached and returned.
+     *  Note 1: an entry heavier than the maximum weight is returned but not cached.
+     *  Note 2: a value the garbage collector reclaimed, or past its time to live, counts as a miss.
+     *  Note 3: during the backoff of a failed load, returns the stale value if the policy allows it, else throws the
+     *  cached failure, without calling the function.
      * @param key The key to retrieve the value
      * @param dataRetrievalFunction A function to generate the value V from a key K
      * @return The matching value for the given key
-     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception, now or during
+     * the backoff of the key
      */
+    @SuppressWarnings("unchecked")
     public V get(K key, Function<K, V> dataRetrievalFunction) {
+        Object lookupKey = lookupKey(key);
 
-        if(_localCache.containsKey(key))
-                return _localCache.get(key);
+        Node<K, V> node = _localCache.get(lookupKey);
+        Object value = node == null ? _absent : readable(node);
+        if (value != _absent) {
+            _statsCounter.recordHits(1);
+            afterRead(node);
+            return (V) value;
+        }
 
         // We synchronise only on the key, so not to block the remaining of the cache
         // We check whether key is null, as synchronised keyword cannot handle null
         synchronized (key == null ? this : key) {
-            if (_localCache.containsKey(key))
-                return _localCache.get(key);
+            node = _localCache.get(lookupKey);
+            value = node == null ? _absent : readable(node);
+            if (value != _absent) {
+                _statsCounter.recordHits(1);
+                afterRead(node);
+                return (V) value;
+            }
 
-            try{
-                V retrievedValue = dataRetrievalFunction.apply(key);
-                _localCache.put(key, retrievedValue);
-                return retrievedValue;
+            _statsCounter.recordMisses(1);
+            _statsCounter.recordLoadStart();
+            // Reading the clock is not free, we skip it when nobody looks at the statistics
+            long loadStart = _statsCounter.isEnabled() ? System.nanoTime() : 0L;
+            V retrievedValue;
+            try {
+                retrievedValue = dataRetrievalFunction.apply(key);
+                _statsCounter.recordLoadSuccess(_statsCounter.isEnabled() ? System.nanoTime() - loadStart : 0L);
             }
             catch ( Exception e) {
-                throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", e);
+                _statsCounter.recordLoadFailure(_statsCounter.isEnabled() ? System.nanoTime() - loadStart : 0L);
+                return onLoadFailure(key, node, e);
+            }
+
+            add(key, retrievedValue);
+            return retrievedValue;
+        }
+    }
+
+    /**
+     * 0(1) time complexity
+     * Note 1: includes the entries the garbage collector reclaimed since the last maintenance, see cleanUp.
+     * @return the number of cached entries
+     */
+    public int size() {
+        return _localCache.size();
+    }
+
+    /**
+     *  Caches the provided value for the key K, replacing the value cached so far if any, and its failure.
+     *  Note 1: synchronised on the key like the loads, so a load running for that key cannot overwrite the new value.
+     * @param key The key of the value
+     * @param value The new value
+     */
+    public void put(K key, V value) {
+        synchronized (key == null ? this : key) {
+            add(key, value);
+        }
+    }
+
+    /**
+     *  Removes the value cached for the key K, if any. The next get will use its data retrieval function.
+     *  Note 1: synchronised on the key like the loads, so a load running for that key cannot store the value it read
+     *  before the invalidation.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        Object lookupKey = lookupKey(key);
+        synchronized (key == null ? this : key) {
+            _evictionLock.lock();
+            try {
+                Node<K, V> node = _localCache.remove(lookupKey);
+                if (node != null) {
+                    discard(node);
+                    _statsCounter.recordEviction(RemovalCause.EXPLICIT);
+                }
+            } finally {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     *  Removes every cached value.
+     */
+    public void invalidateAll() {
+        _evictionLock.lock();
+        try {
+            for (Node<K, V> node = _lruHead._next; node != _lruHead; ) {
+                Node<K, V> next = node._next;
+                _localCache.remove(node._mapKey, node);
+                discard(node);
+                _statsCounter.recordEviction(RemovalCause.EXPLICIT);
+                node = next;
+            }
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entries the garbage collector reclaimed since the last maintenance.
+     * Reads and writes already do so as they go, this is for a cache left idle.
+     */
+    public void cleanUp() {
+        _evictionLock.lock();
+        try {
+            drainReferenceQueue();
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics, all zeros when they are disabled
+     */
+    public CacheStats stats() {
+        return _statsCounter.snapshot();
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the total weight of the cached entries, in the unit of the weigher
+     */
+    public long weightedSize() {
+        return _weightedSize;
+    }
+
+    /**
+     * Moves the node to the most recently used end of the list, and drains the reference queue, unless another thread
+     * holds the lock. Unbounded caches in the STRONG mode have nothing to do, so they skip the bookkeeping.
+     */
+    private void afterRead(Node<K, V> node) {
+        if ((_maximumWeight == Long.MAX_VALUE && _referenceQueue == null) || !_evictionLock.tryLock())
+            return;
+
+        try {
+            // The node may have been evicted since we read it from the map
+            if (_maximumWeight != Long.MAX_VALUE && node._previous != null) {
+                unlink(node);
+                linkLast(node);
             }
+            drainReferenceQueue();
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Weighs and caches a value with its time to live.
+     */
+    private void add(K key, V value) {
+        int weight = _weigher.weigh(key, value);
+        if (weight < 0)
+            throw new IllegalArgumentException("The weigher returned a negative weight for key " + key);
+
+        // Admitting it would flush the whole cache, and still not fit. An older value must not survive it though.
+        if (weight > _maximumWeight) {
+            invalidate(key);
+            return;
+        }
+
+        long timeToLive = _loadFailurePolicy.timeToLiveNanos(value);
+        store(key, value, weight, timeToLive == Long.MAX_VALUE ? _never : System.nanoTime() + timeToLive, null);
+    }
+
+    /**
+     * Returns the value to serve from a node found in the map.
+     * @return the value, or _absent if it must be loaded
+     * @throws IllegalArgumentException the cached failure of the key, during its backoff and without stale value
+     */
+    private Object readable(Node<K, V> node) {
+        Failure failure = node._failure;
+        if (failure != null) {
+            // The backoff elapsed, the next load retries
+            if (System.nanoTime() - failure._retryAt >= 0)
+                return _absent;
+
+            Object stale = valueOf(node);
+            if (stale != _absent)
+                return stale;
+
+            _statsCounter.recordMisses(1);
+            throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", failure._cause);
+        }
+
+        return isExpired(node) ? _absent : valueOf(node);
+    }
+
+    /**
+     * Applies the load failure policy to a failed load, under the key lock.
+     * @param node the node of the key the load replaces, null if none
+     * @return the stale value of the node, if the policy serves it
+     * @throws IllegalArgumentException wrapping the failure otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private V onLoadFailure(K key, Node<K, V> node, Exception e) {
+        Object stale = node == null || !_loadFailurePolicy.servesStale() ? _absent : valueOf(node);
+        if (_loadFailurePolicy.cachesFailures()) {
+            int failures = node != null && node._failure != null ? node._failure._consecutiveFailures + 1 : 1;
+            Failure failure = new Failure(e, failures, System.nanoTime() + _loadFailurePolicy.backoffNanos(failures));
+            store(key, stale, stale == _absent ? 0 : node._weight, _never, failure);
+        }
+
+        if (stale != _absent)
+            return (V) stale;
+        throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", e);
+    }
+
+    /**
+     * Caches a node, then evicts the least recently used entries above the budget.
+     * @param value the value, or _absent for a failure without stale value
+     */
+    private void store(K key, Object value, int weight, long expiresAt, Failure failure) {
+        _evictionLock.lock();
+        try {
+            drainReferenceQueue();
+            Node<K, V> node = new Node<>(mapKey(key), value, weight, expiresAt, failure);
+            if (_referenceMode.softValues() && value != _absent)
+                node._value = new ValueReference(value == null ? _nullValue : value, node, _referenceQueue);
+
+            Node<K, V> previous = _localCache.put(node._mapKey, node);
+            if (previous != null) {
+                discard(previous);
+                RemovalCause cause = removalCause(previous);
+                if (cause != null)
+                    _statsCounter.recordEviction(cause);
+            }
+
+            linkLast(node);
+            long weightedSize = _weightedSize + weight;
+            while (weightedSize > _maximumWeight) {
+                Node<K, V> eldest = _lruHead._next;
+                _localCache.remove(eldest._mapKey, eldest);
+                weightedSize -= eldest._weight;
+                unlink(eldest);
+                _statsCounter.recordEviction(RemovalCause.SIZE);
+            }
+            _weightedSize = weightedSize;
+        } finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entries whose key or value the garbage collector cleared. Must be called under the eviction lock.
+     * Note 1: the removal only succeeds while the cleared reference still maps the node, it was replaced otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    private void drainReferenceQueue() {
+        if (_referenceQueue == null)
+            return;
+
+        Reference<?> reference;
+        while ((reference = _referenceQueue.poll()) != null) {
+            Node<K, V> node;
+            Object mapKey;
+            if (reference instanceof ValueReference) {
+                node = (Node<K, V>) ((ValueReference) reference)._node;
+                mapKey = node._mapKey;
+            } else {
+                mapKey = reference;
+                node = _localCache.get(mapKey);
+            }
+
+            if (node != null && _localCache.remove(mapKey, node)) {
+                discard(node);
+                _statsCounter.recordEviction(RemovalCause.COLLECTED);
+            }
+        }
+    }
+
+    /**
+     * @return the key to look the map up with: a stand in for the null key, or for the reference of a weak key
+     */
+    private Object lookupKey(K key) {
+        if (key == null)
+            return _nullKey;
+        return _referenceMode.weakKeys() ? new LookupKey(key) : key;
+    }
+
+    /**
+     * Must be called under the eviction lock, as it reads the map to reuse the reference of a weak key.
+     * @return the key to store in the map. A replaced node passes its KeyReference on, so the key of the map is always
+     * the one of its node, even once cleared.
+     */
+    private Object mapKey(K key) {
+        if (key == null)
+            return _nullKey;
+        if (!_referenceMode.weakKeys())
+            return key;
+
+        Node<K, V> existing = _localCache.get(new LookupKey(key));
+        return existing != null ? existing._mapKey : new KeyReference(key, _referenceQueue);
+    }
+
+    /**
+     * @return the value of the node, or _absent if it holds none
+     */
+    private Object valueOf(Node<K, V> node) {
+        if (!_referenceMode.softValues() || node._value == _absent)
+            return node._value;
+
+        Object value = ((ValueReference) node._value).get();
+        return value == null ? _absent : value == _nullValue ? null : value;
+    }
+
+    /**
+     * The clock is only read for the nodes with a deadline
+     */
+    private static boolean isExpired(Node<?, ?> node) {
+        return node._expiresAt != _never && System.nanoTime() - node._expiresAt >= 0;
+    }
+
+    /**
+     * @return why a replaced node left, null if it held no value
+     */
+    private RemovalCause removalCause(Node<K, V> previous) {
+        if (previous._failure != null)
+            return valueOf(previous) == _absent ? null : RemovalCause.EXPIRED;
+        if (isExpired(previous))
+            return RemovalCause.EXPIRED;
+        return valueOf(previous) == _absent ? RemovalCause.COLLECTED : RemovalCause.REPLACED;
+    }
+
+    /**
+     * Takes a removed or replaced node out of the list and of the weighted size. Must be called under the eviction lock.
+     */
+    private void discard(Node<K, V> node) {
+        _weightedSize -= node._weight;
+        unlink(node);
+    }
+
+    /**
+     * Must be called under the eviction lock
+     */
+    private void linkLast(Node<K, V> node) {
+        Node<K, V> last = _lruHead._previous;
+        node._previous = last;
+        node._next = _lruHead;
+        last._next = node;
+        _lruHead._previous = node;
+    }
+
+    /**
+     * Must be called under the eviction lock. An unlinked node has null links.
+     */
+    private void unlink(Node<K, V> node) {
+        node._previous._next = node._next;
+        node._next._previous = node._previous;
+        node._previous = null;
+        node._next = null;
+    }
+
+    /**
+     * A cached entry, also a link of the LRU list
+     */
+    private static final class Node<K, V> {
+        /**
+         * The key, _nullKey, or a KeyReference with weak keys
+         */
+        private final Object _mapKey;
+
+        /**
+         * The value, a ValueReference with soft values, or _absent. Only written before the node is published.
+         */
+        private Object _value;
+
+        private final int _weight;
+
+        /**
+         * System.nanoTime deadline of the value, _never if it does not expire
+         */
+        private final long _expiresAt;
+
+        /**
+         * The last failure of the key during its backoff, null otherwise
+         */
+        private final Failure _failure;
+
+        /**
+         * Links of the LRU list, guarded by the eviction lock
+         */
+        private Node<K, V> _previous;
+        private Node<K, V> _next;
+
+        Node(Object mapKey, Object value, int weight, long expiresAt, Failure failure) {
+            _mapKey = mapKey;
+            _value = value;
+            _weight = weight;
+            _expiresAt = expiresAt;
+            _failure = failure;
+        }
+    }
 
+    /**
+     * A failed load, cached until its retry time
+     */
+    private static final class Failure {
+        private final Exception _cause;
+        private final int _consecutiveFailures;
+        private final long _retryAt;
+
+        Failure(Exception cause, int consecutiveFailures, long retryAt) {
+            _cause = cause;
+            _consecutiveFailures = consecutiveFailures;
+            _retryAt = retryAt;
+        }
+    }
+
+    /**
+     * A weakly referenced key, as stored in the map. Compares to the other keys by identity of the referent, the
+     * hash code being kept so a cleared reference can still be found and removed.
+     */
+    private static final class KeyReference extends WeakReference<Object> {
+        private final int _hashCode;
+
+        KeyReference(Object key, ReferenceQueue<Object> referenceQueue) {
+            super(key, referenceQueue);
+            _hashCode = System.identityHashCode(key);
+        }
+
+        public int hashCode() {
+            return _hashCode;
+        }
+
+        public boolean equals(Object other) {
+            if (other == this)
+                return true;
+            Object key = get();
+            if (other instanceof KeyReference)
+                return key != null && key == ((KeyReference) other).get();
+            return other instanceof LookupKey && key == ((LookupKey) other)._key;
+        }
+    }
+
+    /**
+     * Looks a KeyReference up by its referent, without registering a new reference with the garbage collector
+     */
+    private static final class LookupKey {
+        private final Object _key;
+
+        LookupKey(Object key) {
+            _key = key;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(_key);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof KeyReference && ((KeyReference) other).get() == _key;
+        }
+    }
+
+    /**
+     * A softly referenced value, knowing its node so the drain can remove it
+     */
+    private static final class ValueReference extends SoftReference<Object> {
+        private final Node<?, ?> _node;
 
+        ValueReference(Object value, Node<?, ?> node, ReferenceQueue<Object> referenceQueue) {
+            super(value, referenceQueue);
+            _node = node;
         }
     }
 }
@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the statistics of a cache.
+ * Technical: the load latencies are kept in a log2 histogram. Bucket i counts the loads that took between
+ * 2^(i-1) and 2^i nanoseconds, so a percentile is only known to a factor of 2, which is enough to spot a slow backend.
+ */
+public final class CacheStats {
+
+    /**
+     * One bucket per power of 2 of nanoseconds
+     */
+    static final int _latencyBuckets = 64;
+
+    private final long _hitCount;
+    private final long _missCount;
+    private final long _loadSuccessCount;
+    private final long _loadFailureCount;
+    private final long _totalLoadTimeNanos;
+    private final long _inFlightLoads;
+    private final long[] _evictionCounts;
+    private final long[] _latencyHistogram;
+
+    CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount, long totalLoadTimeNanos,
+               long inFlightLoads, long[] evictionCounts, long[] latencyHistogram) {
+        _hitCount = hitCount;
+        _missCount = missCount;
+        _loadSuccessCount = loadSuccessCount;
+        _loadFailureCount = loadFailureCount;
+        _totalLoadTimeNanos = totalLoadTimeNanos;
+        _inFlightLoads = inFlightLoads;
+        _evictionCounts = evictionCounts;
+        _latencyHistogram = latencyHistogram;
+    }
+
+    /**
+     * @return the histogram bucket of a load time
+     */
+    static int latencyBucket(long nanos) {
+        return Math.min(_latencyBuckets - 1, 64 - Long.numberOfLeadingZeros(Math.max(0L, nanos)));
+    }
+
+    public long hitCount() {
+        return _hitCount;
+    }
+
+    public long missCount() {
+        return _missCount;
+    }
+
+    public long requestCount() {
+        return _hitCount + _missCount;
+    }
+
+    /**
+     * @return the ratio of lookups that found their key, 1 if there was no lookup
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) _hitCount / requestCount;
+    }
+
+    public long loadSuccessCount() {
+        return _loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return _loadFailureCount;
+    }
+
+    public long totalLoadTimeNanos() {
+        return _totalLoadTimeNanos;
+    }
+
+    /**
+     * @return the mean time spent in the data retrieval function, 0 if there was no load
+     */
+    public double averageLoadPenaltyNanos() {
+        long loadCount = _loadSuccessCount + _loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) _totalLoadTimeNanos / loadCount;
+    }
+
+    /**
+     * @return the number of data retrieval functions running when the snapshot was taken
+     */
+    public long inFlightLoads() {
+        return _inFlightLoads;
+    }
+
+    /**
+     * @param cause the cause to count
+     * @return the number of entries removed for that cause
+     */
+    public long evictionCount(RemovalCause cause) {
+        return _evictionCounts[cause.ordinal()];
+    }
+
+    /**
+     * @return the number of entries removed, all causes together
+     */
+    public long evictionCount() {
+        return Arrays.stream(_evictionCounts).sum();
+    }
+
+    /**
+     * @return a copy of the log2 histogram of the load times
+     */
+    public long[] loadLatencyHistogram() {
+        return _latencyHistogram.clone();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound, in nanoseconds, of the histogram bucket holding that percentile. 0 if there was no load.
+     */
+    public long loadLatencyPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+
+        long total = Arrays.stream(_latencyHistogram).sum();
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < _latencyBuckets; i++) {
+            seen += _latencyHistogram[i];
+            if (seen >= rank)
+                return i == _latencyBuckets - 1 ? Long.MAX_VALUE : 1L << i;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStats{hits=%d, misses=%d, hitRate=%.4f, loadSuccesses=%d, loadFailures=%d, "
+                        + "averageLoadPenaltyNanos=%.1f, inFlightLoads=%d, evictions=%d}",
+                _hitCount, _missCount, hitRate(), _loadSuccessCount, _loadFailureCount,
+                averageLoadPenaltyNanos(), _inFlightLoads, evictionCount());
+    }
+}
@@ -0,0 +1,96 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the statistics of a cache on the platform MBean server, under "JavaSC:type=Cache,name=...".
+ * Every attribute read takes a new snapshot, so nothing is computed while no JMX client is looking.
+ */
+public class CacheStatsJmx implements CacheStatsMXBean {
+
+    private final StatsCounter _statsCounter;
+
+    private CacheStatsJmx(StatsCounter statsCounter) {
+        _statsCounter = statsCounter;
+    }
+
+    /**
+     * Registers the statistics of a cache
+     * @param cacheName unique name of the cache, used in the ObjectName
+     * @param statsCounter the counter the cache records into
+     * @return the name to pass to unregister
+     * @throws IllegalArgumentException if the name is invalid or already registered
+     */
+    public static ObjectName register(String cacheName, StatsCounter statsCounter) {
+        try {
+            ObjectName objectName = new ObjectName("JavaSC:type=Cache,name=" + ObjectName.quote(cacheName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new CacheStatsJmx(statsCounter), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not register the statistics of cache " + cacheName, e);
+        }
+    }
+
+    /**
+     * Removes statistics previously registered, does nothing if they are not registered anymore
+     * @param objectName the name returned by register
+     */
+    public static void unregister(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Could not unregister " + objectName, e);
+        }
+    }
+
+    public long getHitCount() {
+        return _statsCounter.snapshot().hitCount();
+    }
+
+    public long getMissCount() {
+        return _statsCounter.snapshot().missCount();
+    }
+
+    public double getHitRate() {
+        return _statsCounter.snapshot().hitRate();
+    }
+
+    public long getLoadSuccessCount() {
+        return _statsCounter.snapshot().loadSuccessCount();
+    }
+
+    public long getLoadFailureCount() {
+        return _statsCounter.snapshot().loadFailureCount();
+    }
+
+    public double getAverageLoadPenaltyNanos() {
+        return _statsCounter.snapshot().averageLoadPenaltyNanos();
+    }
+
+    public long getLoadLatencyP50Nanos() {
+        return _statsCounter.snapshot().loadLatencyPercentileNanos(50);
+    }
+
+    public long getLoadLatencyP99Nanos() {
+        return _statsCounter.snapshot().loadLatencyPercentileNanos(99);
+    }
+
+    public long getInFlightLoads() {
+        return _statsCounter.snapshot().inFlightLoads();
+    }
+
+    public long getEvictionCount() {
+        return _statsCounter.snapshot().evictionCount();
+    }
+
+    public long getSizeEvictionCount() {
+        return _statsCounter.snapshot().evictionCount(RemovalCause.SIZE);
+    }
+
+    public long getCollectedEvictionCount() {
+        return _statsCounter.snapshot().evictionCount(RemovalCause.COLLECTED);
+    }
+}
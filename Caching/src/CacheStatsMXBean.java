@@ -0,0 +1,28 @@
+/**
+ * The statistics of a cache as exposed through JMX, see CacheStatsJmx.
+ */
+public interface CacheStatsMXBean {
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadPenaltyNanos();
+
+    long getLoadLatencyP50Nanos();
+
+    long getLoadLatencyP99Nanos();
+
+    long getInFlightLoads();
+
+    long getEvictionCount();
+
+    long getSizeEvictionCount();
+
+    long getCollectedEvictionCount();
+}
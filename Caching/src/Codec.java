@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns keys or values into bytes and back, for the caches storing them outside of the java heap.
+ * @param <T> the type to serialise
+ */
+public interface Codec<T> {
+    /**
+     * Serialises a non null instance.
+     * @param value the instance to serialise
+     * @return the bytes representing the value. The caller will not modify them.
+     */
+    byte[] encode(T value);
+
+    /**
+     * Deserialises an instance from the remaining bytes of the buffer.
+     * @param buffer a read only view on the bytes written by encode. Position and limit delimit the instance.
+     * @return the deserialised instance
+     */
+    T decode(ByteBuffer buffer);
+
+    /**
+     * @return a codec storing byte arrays as they are
+     */
+    static Codec<byte[]> bytes() {
+        return new Codec<>() {
+            public byte[] encode(byte[] value) {
+                return value;
+            }
+
+            public byte[] decode(ByteBuffer buffer) {
+                byte[] value = new byte[buffer.remaining()];
+                buffer.get(value);
+                return value;
+            }
+        };
+    }
+
+    /**
+     * @return a codec storing strings as UTF-8
+     */
+    static Codec<String> utf8() {
+        return new Codec<>() {
+            public byte[] encode(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            public String decode(ByteBuffer buffer) {
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            }
+        };
+    }
+
+    /**
+     * @return a codec storing integers on 4 bytes
+     */
+    static Codec<Integer> integers() {
+        return new Codec<>() {
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+            }
+
+            public Integer decode(ByteBuffer buffer) {
+                return buffer.getInt(buffer.position());
+            }
+        };
+    }
+
+    /**
+     * @return a codec storing longs on 8 bytes
+     */
+    static Codec<Long> longs() {
+        return new Codec<>() {
+            public byte[] encode(Long value) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+            }
+
+            public Long decode(ByteBuffer buffer) {
+                return buffer.getLong(buffer.position());
+            }
+        };
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe StatsCounter.
+ * Technical: every counter is a LongAdder, striped per thread under contention, so recording a hit does not bounce
+ * a shared cache line between the cores. The sums are only computed when a snapshot is taken.
+ */
+public class ConcurrentStatsCounter implements StatsCounter {
+
+    private final LongAdder _hitCount = new LongAdder();
+    private final LongAdder _missCount = new LongAdder();
+    private final LongAdder _loadSuccessCount = new LongAdder();
+    private final LongAdder _loadFailureCount = new LongAdder();
+    private final LongAdder _totalLoadTimeNanos = new LongAdder();
+    private final LongAdder _inFlightLoads = new LongAdder();
+    private final LongAdder[] _evictionCounts;
+    private final LongAdder[] _latencyHistogram;
+
+    /**
+     * New instance of this class, all counters at 0
+     */
+    public ConcurrentStatsCounter() {
+        _evictionCounts = newAdders(RemovalCause.values().length);
+        _latencyHistogram = newAdders(CacheStats._latencyBuckets);
+    }
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void recordHits(int count) {
+        _hitCount.add(count);
+    }
+
+    public void recordMisses(int count) {
+        _missCount.add(count);
+    }
+
+    public void recordLoadStart() {
+        _inFlightLoads.increment();
+    }
+
+    public void recordLoadSuccess(long loadTimeNanos) {
+        _inFlightLoads.decrement();
+        _loadSuccessCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    public void recordLoadFailure(long loadTimeNanos) {
+        _inFlightLoads.decrement();
+        _loadFailureCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    public void recordEviction(RemovalCause cause) {
+        _evictionCounts[cause.ordinal()].increment();
+    }
+
+    /**
+     * Note 1: the counters are read one after the other while the cache runs, so the snapshot is not atomic.
+     */
+    public CacheStats snapshot() {
+        return new CacheStats(_hitCount.sum(), _missCount.sum(), _loadSuccessCount.sum(), _loadFailureCount.sum(),
+                _totalLoadTimeNanos.sum(), _inFlightLoads.sum(), sums(_evictionCounts), sums(_latencyHistogram));
+    }
+
+    private void recordLoadTime(long loadTimeNanos) {
+        _totalLoadTimeNanos.add(loadTimeNanos);
+        _latencyHistogram[CacheStats.latencyBucket(loadTimeNanos)].increment();
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++)
+            sums[i] = adders[i].sum();
+        return sums;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * A StatsCounter recording nothing, the default of the caches.
+ */
+enum DisabledStatsCounter implements StatsCounter {
+    INSTANCE;
+
+    private static final CacheStats _empty = new CacheStats(0, 0, 0, 0, 0, 0,
+            new long[RemovalCause.values().length], new long[CacheStats._latencyBuckets]);
+
+    public boolean isEnabled() {
+        return false;
+    }
+
+    public void recordHits(int count) {
+    }
+
+    public void recordMisses(int count) {
+    }
+
+    public void recordLoadStart() {
+    }
+
+    public void recordLoadSuccess(long loadTimeNanos) {
+    }
+
+    public void recordLoadFailure(long loadTimeNanos) {
+    }
+
+    public void recordEviction(RemovalCause cause) {
+    }
+
+    public CacheStats snapshot() {
+        return _empty;
+    }
+}
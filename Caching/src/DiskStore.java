@@ -0,0 +1,566 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, log-structured key value store over memory-mapped segment files, used as the second tier of TieredCache.
+ * Technical: records are appended to the active segment: [int magic][int key length][int value length][int crc][key][value].
+ * A removal appends a tombstone, a record with a value length of -1, so the key stays removed after a restart.
+ * The index maps each key to the pointer of its latest record (segment id on the high 32 bits, offset on the low 32 bits).
+ * On opening, the existing segments are scanned in order to rebuild the index, so the content survives a restart.
+ * A background task rewrites the live records of the sealed segments that are mostly dead, then deletes them.
+ * Readers never lock: a compacted segment is never written again and its mapping stays valid while referenced.
+ * Note 1: null keys and null values are not stored.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class DiskStore<K, V> implements Closeable {
+
+    /**
+     * Starts every record, so the scan knows where the written part of a segment ends
+     */
+    private static final int _recordMagic = 0x7CAC4E01;
+
+    /**
+     * [int magic][int key length][int value length][int crc]
+     */
+    private static final int _headerSize = 16;
+
+    /**
+     * Value length of a tombstone
+     */
+    private static final int _tombstone = -1;
+
+    /**
+     * Sealed segments with less live bytes than this ratio are compacted
+     */
+    private static final double _compactionThreshold = 0.5;
+
+    private final Path _directory;
+
+    private final Codec<K> _keyCodec;
+
+    private final Codec<V> _valueCodec;
+
+    /**
+     * Size in bytes of the new segment files
+     */
+    private final int _segmentSize;
+
+    /**
+     * When more segments than this exist, the oldest one is dropped with its records
+     */
+    private final int _maximumSegments;
+
+    /**
+     * The segments by id, the highest id being the active one
+     */
+    private final ConcurrentSkipListMap<Integer, Segment> _segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Pointer to the latest record of each key
+     */
+    private final ConcurrentHashMap<K, Long> _index = new ConcurrentHashMap<>();
+
+    /**
+     * Serialises the appends, from the puts and from the compaction
+     */
+    private final ReentrantLock _appendLock = new ReentrantLock();
+
+    /**
+     * Runs the compaction in the background
+     */
+    private final ScheduledExecutorService _executorService;
+
+    /**
+     * Number of segment files the background compaction could not delete
+     */
+    private final AtomicLong _failedDeletions = new AtomicLong();
+
+    /**
+     * Id of the next segment created. Ids are never reused, even after clear, so a pointer read without lock cannot
+     * resolve to a newer segment. Guarded by the append lock.
+     */
+    private int _nextSegmentId;
+
+    /**
+     * The segment receiving the appends, also read by the compaction to skip it
+     */
+    private volatile Segment _activeSegment;
+
+    /**
+     * New instance of this class, reloading the segments already present in the directory
+     * @param directory where the segment files live, created if needed
+     * @param keyCodec serialises the keys
+     * @param valueCodec serialises the values
+     * @param segmentSize size in bytes of each segment file. It also caps the size of a record.
+     * @param maximumSegments the store holds at most segmentSize * maximumSegments bytes
+     * @param compactionIntervalMs time between two compaction passes, 0 to only compact on demand
+     */
+    public DiskStore(Path directory, Codec<K> keyCodec, Codec<V> valueCodec, int segmentSize, int maximumSegments,
+                     long compactionIntervalMs) {
+        if (segmentSize <= _headerSize)
+            throw new IllegalArgumentException("The segment size is too small");
+        if (maximumSegments < 2)
+            throw new IllegalArgumentException("At least two segments are needed, one active and one being compacted");
+
+        _directory = directory;
+        _keyCodec = keyCodec;
+        _valueCodec = valueCodec;
+        _segmentSize = segmentSize;
+        _maximumSegments = maximumSegments;
+
+        try {
+            Files.createDirectories(directory);
+            reload();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the disk store in " + directory, e);
+        }
+
+        _executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "disk-store-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (compactionIntervalMs > 0)
+            _executorService.scheduleWithFixedDelay(this::compactInBackground, compactionIntervalMs, compactionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the latest value stored for a key.
+     * Note 1: no lock, a map lookup plus the deserialisation from the mapped file.
+     * @param key the key to look for
+     * @return the value, or null if not stored
+     */
+    public V get(K key) {
+        if (key == null)
+            return null;
+
+        while (true) {
+            Long pointer = _index.get(key);
+            if (pointer == null)
+                return null;
+
+            Segment segment = _segments.get(segmentId(pointer));
+            // The segment was dropped since we read the index, the key moved or is gone
+            if (segment == null) {
+                if (pointer.equals(_index.get(key)))
+                    return null;
+                continue;
+            }
+
+            int offset = offset(pointer);
+            int keyLength = segment._buffer.getInt(offset + 4);
+            int valueLength = segment._buffer.getInt(offset + 8);
+            return _valueCodec.decode(segment._buffer.slice(offset + _headerSize + keyLength, valueLength).asReadOnlyBuffer());
+        }
+    }
+
+    /**
+     * @param key the key to look for
+     * @return true if a value is stored for that key
+     */
+    public boolean contains(K key) {
+        return key != null && _index.containsKey(key);
+    }
+
+    /**
+     * Appends a record for the key, replacing the previous one.
+     * @param key the key, not stored if null
+     * @param value the value, not stored if null
+     * @return true if stored, false if null or too large for a segment
+     */
+    public boolean put(K key, V value) {
+        if (key == null || value == null)
+            return false;
+
+        byte[] keyBytes = _keyCodec.encode(key);
+        byte[] valueBytes = _valueCodec.encode(value);
+        if (_headerSize + (long) keyBytes.length + valueBytes.length > _segmentSize)
+            return false;
+
+        _appendLock.lock();
+        try {
+            long pointer = append(keyBytes, valueBytes);
+            release(_index.put(key, pointer));
+        } finally {
+            _appendLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Appends a tombstone for the key, if a value is stored for it.
+     * @param key the key to remove
+     * @return true if a value was stored
+     */
+    public boolean remove(K key) {
+        if (key == null || !_index.containsKey(key))
+            return false;
+
+        byte[] keyBytes = _keyCodec.encode(key);
+        _appendLock.lock();
+        try {
+            Long pointer = _index.remove(key);
+            if (pointer == null)
+                return false;
+
+            append(keyBytes, null);
+            release(pointer);
+            return true;
+        } finally {
+            _appendLock.unlock();
+        }
+    }
+
+    /**
+     * Removes every key and deletes every segment file
+     * @throws UncheckedIOException if a segment file could not be deleted
+     */
+    public void clear() {
+        _appendLock.lock();
+        try {
+            _index.clear();
+            _activeSegment = null;
+            UncheckedIOException failure = null;
+            // Every file is attempted, a failure on one must not leave the others behind
+            for (Segment segment : new ArrayList<>(_segments.values())) {
+                try {
+                    deleteSegment(segment);
+                } catch (UncheckedIOException e) {
+                    if (failure == null)
+                        failure = e;
+                    else
+                        failure.addSuppressed(e);
+                }
+            }
+            if (failure != null)
+                throw failure;
+        } finally {
+            _appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of segment files the background compaction could not delete, left on disk since
+     */
+    public long failedDeletions() {
+        return _failedDeletions.get();
+    }
+
+    /**
+     * @return the number of keys stored
+     */
+    public int size() {
+        return _index.size();
+    }
+
+    /**
+     * Rewrites the live records of the sealed segments that are mostly dead, then deletes those segments.
+     * Runs in the background, but can be called directly. Reads are never blocked, puts only while a record is copied.
+     * @throws UncheckedIOException if a compacted segment file could not be deleted
+     */
+    public void compact() {
+        for (Segment segment : new ArrayList<>(_segments.values())) {
+            if (segment == _activeSegment || segment._liveBytes.get() > segment._capacity * _compactionThreshold)
+                continue;
+
+            forEachRecord(segment, (key, offset, length) -> {
+                byte[] keyBytes = new byte[segment._buffer.getInt(offset + 4)];
+                segment._buffer.get(offset + _headerSize, keyBytes);
+
+                if (isTombstone(segment, offset)) {
+                    // A tombstone must outlive the older records it shadows, unless a later put shadows them too
+                    _appendLock.lock();
+                    try {
+                        Map.Entry<Integer, Segment> oldest = _segments.firstEntry();
+                        if (!_index.containsKey(key) && oldest != null && oldest.getKey() < segment._id)
+                            append(keyBytes, null);
+                    } finally {
+                        _appendLock.unlock();
+                    }
+                    return;
+                }
+
+                long pointer = pointer(segment._id, offset);
+                if (!Long.valueOf(pointer).equals(_index.get(key)))
+                    return;
+
+                byte[] valueBytes = new byte[segment._buffer.getInt(offset + 8)];
+                segment._buffer.get(offset + _headerSize + keyBytes.length, valueBytes);
+
+                _appendLock.lock();
+                try {
+                    long newPointer = append(keyBytes, valueBytes);
+                    // A put may have won the race, in which case the copy is already dead
+                    if (!_index.replace(key, pointer, newPointer))
+                        release(newPointer);
+                } finally {
+                    _appendLock.unlock();
+                }
+            });
+
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Stops the compaction and flushes the segments to disk. The mappings are released once garbage collected.
+     */
+    public void close() {
+        _executorService.shutdown();
+        try {
+            if (!_executorService.awaitTermination(10, TimeUnit.SECONDS))
+                _executorService.shutdownNow();
+        } catch (InterruptedException e) {
+            _executorService.shutdownNow();
+        }
+
+        _appendLock.lock();
+        try {
+            for (Segment segment : _segments.values())
+                segment._buffer.force();
+        } finally {
+            _appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a record in the active segment, rolling to a new segment if it does not fit.
+     * Must be called under the append lock.
+     * @param valueBytes the value, null for a tombstone
+     * @return the pointer of the record
+     */
+    private long append(byte[] keyBytes, byte[] valueBytes) {
+        int recordSize = _headerSize + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+        if (_activeSegment == null || _activeSegment._position + recordSize > _activeSegment._capacity)
+            roll();
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        if (valueBytes != null)
+            crc.update(valueBytes);
+
+        Segment segment = _activeSegment;
+        int offset = segment._position;
+        segment._buffer.put(offset + _headerSize, keyBytes);
+        if (valueBytes != null)
+            segment._buffer.put(offset + _headerSize + keyBytes.length, valueBytes);
+        segment._buffer.putInt(offset + 4, keyBytes.length);
+        segment._buffer.putInt(offset + 8, valueBytes == null ? _tombstone : valueBytes.length);
+        segment._buffer.putInt(offset + 12, (int) crc.getValue());
+        // The magic goes last, a record is only visible to a later scan once complete
+        segment._buffer.putInt(offset, _recordMagic);
+
+        segment._position += recordSize;
+        // A tombstone is never pointed at by the index, it does not count as live
+        if (valueBytes != null)
+            segment._liveBytes.addAndGet(recordSize);
+        return pointer(segment._id, offset);
+    }
+
+    /**
+     * Marks the record behind a pointer as dead
+     */
+    private void release(Long pointer) {
+        if (pointer == null)
+            return;
+
+        Segment segment = _segments.get(segmentId(pointer));
+        if (segment != null) {
+            int offset = offset(pointer);
+            segment._liveBytes.addAndGet(-recordSize(segment, offset));
+        }
+    }
+
+    /**
+     * Creates a new active segment, dropping the oldest one if we have too many.
+     * Must be called under the append lock.
+     */
+    private void roll() {
+        if (_segments.size() >= _maximumSegments)
+            dropOldestSegment();
+
+        int id = _nextSegmentId++;
+        try {
+            _activeSegment = new Segment(id, map(segmentFile(id), _segmentSize));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create a segment in " + _directory, e);
+        }
+        _segments.put(id, _activeSegment);
+    }
+
+    /**
+     * Forgets every key still pointing at the oldest segment, then deletes it
+     */
+    private void dropOldestSegment() {
+        Segment oldest = _segments.firstEntry().getValue();
+        forEachRecord(oldest, (key, offset, length) -> _index.remove(key, pointer(oldest._id, offset)));
+        deleteSegment(oldest);
+    }
+
+    /**
+     * Forgets a segment and deletes its file.
+     * @throws UncheckedIOException if the file could not be deleted. Its records would come back on the next reload.
+     */
+    private void deleteSegment(Segment segment) {
+        _segments.remove(segment._id);
+        try {
+            Files.deleteIfExists(segmentFile(segment._id));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete the segment file " + segmentFile(segment._id), e);
+        }
+    }
+
+    /**
+     * The compaction pass of the background task. A failure is counted instead of thrown, which would cancel the
+     * next passes.
+     */
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (UncheckedIOException e) {
+            _failedDeletions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Maps the existing segment files and replays their records in order to rebuild the index.
+     * The last segment becomes the active one, appends resuming after its last complete record.
+     */
+    private void reload() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_directory, "segment-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length())));
+            }
+        }
+        Collections.sort(ids);
+
+        for (int id : ids) {
+            Path file = segmentFile(id);
+            Segment segment = new Segment(id, map(file, (int) Files.size(file)));
+            _segments.put(id, segment);
+
+            segment._position = forEachRecord(segment, (key, offset, length) -> {
+                if (isTombstone(segment, offset)) {
+                    release(_index.remove(key));
+                } else {
+                    segment._liveBytes.addAndGet(length);
+                    release(_index.put(key, pointer(id, offset)));
+                }
+            });
+            _activeSegment = segment;
+            _nextSegmentId = id + 1;
+        }
+    }
+
+    /**
+     * Walks the complete records of a segment, stopping at the first missing magic or wrong checksum.
+     * @return the offset following the last complete record
+     */
+    private int forEachRecord(Segment segment, RecordVisitor<K> visitor) {
+        ByteBuffer buffer = segment._buffer;
+        int offset = 0;
+        while (offset + _headerSize <= segment._capacity && buffer.getInt(offset) == _recordMagic) {
+            int keyLength = buffer.getInt(offset + 4);
+            int valueLength = Math.max(0, buffer.getInt(offset + 8));
+            int recordSize = _headerSize + keyLength + valueLength;
+            if (keyLength < 0 || buffer.getInt(offset + 8) < _tombstone || offset + (long) recordSize > segment._capacity)
+                break;
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(offset + _headerSize, keyLength + valueLength));
+            if ((int) crc.getValue() != buffer.getInt(offset + 12))
+                break;
+
+            K key = _keyCodec.decode(buffer.slice(offset + _headerSize, keyLength).asReadOnlyBuffer());
+            visitor.visit(key, offset, recordSize);
+            offset += recordSize;
+        }
+        return offset;
+    }
+
+    private Path segmentFile(int id) {
+        return _directory.resolve(String.format("segment-%08d.log", id));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static int recordSize(Segment segment, int offset) {
+        return _headerSize + segment._buffer.getInt(offset + 4) + Math.max(0, segment._buffer.getInt(offset + 8));
+    }
+
+    private static boolean isTombstone(Segment segment, int offset) {
+        return segment._buffer.getInt(offset + 8) == _tombstone;
+    }
+
+    private static long pointer(int segmentId, int offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static int segmentId(long pointer) {
+        return (int) (pointer >>> 32);
+    }
+
+    private static int offset(long pointer) {
+        return (int) pointer;
+    }
+
+    /**
+     * Called for every complete record of a segment
+     */
+    @FunctionalInterface
+    private interface RecordVisitor<K> {
+        void visit(K key, int offset, int recordSize);
+    }
+
+    /**
+     * A segment file and its bookkeeping
+     */
+    private static final class Segment {
+        private final int _id;
+        private final MappedByteBuffer _buffer;
+        private final int _capacity;
+
+        /**
+         * Bytes of the records still referenced by the index
+         */
+        private final AtomicLong _liveBytes = new AtomicLong();
+
+        /**
+         * Offset of the next append, only meaningful for the active segment
+         */
+        private int _position;
+
+        Segment(int id, MappedByteBuffer buffer) {
+            _id = id;
+            _buffer = buffer;
+            _capacity = buffer.capacity();
+        }
+    }
+}
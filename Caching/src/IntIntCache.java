@@ -0,0 +1,201 @@
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A version of the cache specialised for primitive int keys and int values.
+ * Technical: open addressing with linear probing over two int[], so there is no boxing at all and no
+ * HashMap.Node per entry (about 16 bytes per entry at our load factor, against 70+ for CacheManager with Integer
+ * keys and values).
+ * The key 0 marks a free slot in the table, hence it is stored aside in its own fields.
+ * Lookups are optimistic reads on a StampedLock: they allocate nothing and only fall back to a read lock
+ * when a writer interfered.
+ */
+public class IntIntCache {
+
+    /**
+     * Guards the table. Readers are optimistic, writers are exclusive.
+     */
+    private final StampedLock _lock = new StampedLock();
+
+    /**
+     * We cannot synchronise on a primitive key as CacheManager does, so the keys are spread over stripes
+     */
+    private final Object[] _loadLocks;
+
+    /**
+     * The keys, 0 meaning a free slot. Length is always a power of 2.
+     */
+    private int[] _keys;
+
+    /**
+     * The values, at the same index as their key
+     */
+    private int[] _values;
+
+    /**
+     * Number of keys stored in the table, the key 0 excluded
+     */
+    private int _size;
+
+    /**
+     * Whether the key 0 is cached
+     */
+    private boolean _hasZeroKey;
+
+    /**
+     * The value cached for the key 0
+     */
+    private int _zeroValue;
+
+    /**
+     * New instance of this class
+     */
+    public IntIntCache() {
+        this(16);
+    }
+
+    /**
+     * New instance of this class
+     * @param expectedSize the number of entries the cache should hold before having to grow
+     */
+    public IntIntCache(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("The expected size cannot be negative");
+
+        int capacity = PrimitiveHashing.tableSizeFor(expectedSize);
+        _keys = new int[capacity];
+        _values = new int[capacity];
+
+        _loadLocks = PrimitiveHashing.newLoadLocks();
+    }
+
+    /**
+     *  Returns the cached value linked to the provided key.
+     *  If not in the cache, the provided function will be used to retrieve the value. It will then be cached and returned.
+     *  Note 1: constant running time on average, no allocation when the key is cached.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value from a key
+     * @return The matching value for the given key
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     */
+    public int get(int key, IntUnaryOperator dataRetrievalFunction) {
+        long stamp = _lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            // We read everything into locals, a concurrent resize could swap the arrays under our feet
+            int[] keys = _keys;
+            int[] values = _values;
+            boolean found;
+            int value;
+            if (key == 0) {
+                found = _hasZeroKey;
+                value = _zeroValue;
+            } else {
+                int index = keys.length == values.length ? PrimitiveHashing.indexOf(keys, key) : PrimitiveHashing._notFound;
+                found = index != PrimitiveHashing._notFound;
+                value = found ? values[index] : 0;
+            }
+
+            if (_lock.validate(stamp)) {
+                if (found)
+                    return value;
+            } else if (containsKeyLocked(key)) {
+                return valueLocked(key);
+            }
+        } else if (containsKeyLocked(key)) {
+            return valueLocked(key);
+        }
+
+        // Same as CacheManager, only the loads of the keys sharing the stripe are blocked
+        synchronized (PrimitiveHashing.loadLock(_loadLocks, PrimitiveHashing.hash(key))) {
+            if (containsKeyLocked(key))
+                return valueLocked(key);
+
+            int retrievedValue;
+            try {
+                retrievedValue = dataRetrievalFunction.applyAsInt(key);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", e);
+            }
+
+            stamp = _lock.writeLock();
+            try {
+                insert(key, retrievedValue);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+            return retrievedValue;
+        }
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the number of cached entries
+     */
+    public int size() {
+        long stamp = _lock.readLock();
+        try {
+            return _hasZeroKey ? _size + 1 : _size;
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Checks the presence of a key under the read lock
+     */
+    private boolean containsKeyLocked(int key) {
+        long stamp = _lock.readLock();
+        try {
+            return key == 0 ? _hasZeroKey : PrimitiveHashing.indexOf(_keys, key) != PrimitiveHashing._notFound;
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads the value of a key known to be cached, under the read lock.
+     * Entries are never removed, so the key is still there.
+     */
+    private int valueLocked(int key) {
+        long stamp = _lock.readLock();
+        try {
+            return key == 0 ? _zeroValue : _values[PrimitiveHashing.indexOf(_keys, key)];
+        } finally {
+            _lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds or replaces an entry. Must be called under the write lock.
+     */
+    private void insert(int key, int value) {
+        if (key == 0) {
+            _zeroValue = value;
+            _hasZeroKey = true;
+            return;
+        }
+
+        if (PrimitiveHashing.needsResize(_size + 1, _keys.length))
+            resize(PrimitiveHashing.grow(_keys.length));
+
+        int index = PrimitiveHashing.slotFor(_keys, key);
+        if (_keys[index] == 0)
+            _size++;
+        _values[index] = value;
+        _keys[index] = key;
+    }
+
+    /**
+     * Rehashes every entry into new arrays. Must be called under the write lock.
+     */
+    private void resize(int newCapacity) {
+        int[] oldKeys = _keys;
+        int[] oldValues = _values;
+        int[] newKeys = new int[newCapacity];
+        int[] newValues = new int[newCapacity];
+        PrimitiveHashing.rehash(oldKeys, newKeys, (from, to) -> newValues[to] = oldValues[from]);
+
+        _keys = newKeys;
+        _values = newValues;
+    }
+}
@@ -0,0 +1,398 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Propagates key invalidations between the processes of a host, through a memory-mapped file they all open.
+ * Technical: the file is split in regions, each one a ring of fixed size records written by a single process.
+ * A process claims a free region by locking it (a FileLock, released by the OS if the process dies), then appends
+ * [long stamp][int key length][key] records to it, and publishes each one by bumping the sequence of its region.
+ * The stamp is cleared while a record is overwritten, so a reader can tell a torn copy, like a seqlock.
+ * The stamp and the sequence are written with release semantics and read with acquire semantics, so a reader seeing
+ * a sequence also sees the records before it. Polling compares the sequence of every other region with the position
+ * reached so far, a couple of memory reads per region when nothing changed.
+ * A reader lapped by a writer (more than a ring of records behind) cannot know which keys it missed, so it empties
+ * its whole cache instead.
+ * Note 1: no network and no broker, but no delivery across hosts either.
+ * Note 2: a key whose encoding does not fit in a record is published as an invalidateAll.
+ * @param <K> the type of the keys
+ */
+public class InvalidationBus<K> implements Closeable {
+
+    /**
+     * Starts the file, so a bus does not reuse a file of another format
+     */
+    private static final int _fileMagic = 0x1B05CAC0;
+
+    /**
+     * [int magic][int region count][int records per region][int record size], padded to a cache line
+     */
+    private static final int _fileHeaderSize = 64;
+
+    /**
+     * [long sequence], padded to a cache line so the writers of two regions do not share one
+     */
+    private static final int _regionHeaderSize = 64;
+
+    /**
+     * [long stamp][int key length]
+     */
+    private static final int _recordHeaderSize = 12;
+
+    /**
+     * Key length of a record invalidating every key
+     */
+    private static final int _allKeys = -1;
+
+    /**
+     * Key length of a record invalidating the null key
+     */
+    private static final int _nullKey = -2;
+
+    /**
+     * Ordered access to the longs of the mapped file. The offsets are multiples of 8, as the modes other than plain
+     * reads and writes require.
+     */
+    private static final VarHandle _longs = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Codec<K> _keyCodec;
+
+    /**
+     * The local cache, receiving the invalidations of the other processes
+     */
+    private final Cache<K, ?> _cache;
+
+    private final FileChannel _channel;
+
+    private final MappedByteBuffer _buffer;
+
+    private final int _regionCount;
+
+    private final int _recordsPerRegion;
+
+    private final int _recordSize;
+
+    /**
+     * The region this process writes to, and the lock keeping the other processes out of it
+     */
+    private final int _region;
+    private final FileLock _regionLock;
+
+    /**
+     * Position reached in each region, guarded by the poll lock
+     */
+    private final long[] _positions;
+
+    /**
+     * Serialises the appends to our region
+     */
+    private final ReentrantLock _publishLock = new ReentrantLock();
+
+    /**
+     * Serialises the polls, the background one and the ones of the caller
+     */
+    private final ReentrantLock _pollLock = new ReentrantLock();
+
+    /**
+     * Runs the background polls
+     */
+    private final ScheduledExecutorService _executorService;
+
+    /**
+     * New instance of this class, with 16 regions of 1024 records of 128 bytes, polled every millisecond
+     * @param file the file shared by the processes, created if needed
+     * @param keyCodec serialises the keys
+     * @param cache the local cache, invalidated by the other processes
+     */
+    public InvalidationBus(Path file, Codec<K> keyCodec, Cache<K, ?> cache) {
+        this(file, keyCodec, cache, 16, 1024, 128, 1);
+    }
+
+    /**
+     * New instance of this class
+     * Note 1: when the file exists, its geometry wins over the one passed.
+     * @param file the file shared by the processes, created if needed
+     * @param keyCodec serialises the keys
+     * @param cache the local cache, invalidated by the other processes
+     * @param regionCount maximum number of processes sharing the file
+     * @param recordsPerRegion number of invalidations a reader can fall behind a writer before being lapped
+     * @param recordSize size in bytes of a record, a multiple of 8. It caps the size of the encoded keys.
+     * @param pollIntervalMs time between two background polls, 0 to only poll on demand
+     */
+    public InvalidationBus(Path file, Codec<K> keyCodec, Cache<K, ?> cache, int regionCount, int recordsPerRegion,
+                           int recordSize, long pollIntervalMs) {
+        if (regionCount < 2)
+            throw new IllegalArgumentException("At least two regions are needed, one per process");
+        if (recordsPerRegion < 1)
+            throw new IllegalArgumentException("A region must hold at least one record");
+        if (recordSize <= _recordHeaderSize || recordSize % Long.BYTES != 0)
+            throw new IllegalArgumentException("The record size must be a multiple of 8 greater than " + _recordHeaderSize);
+
+        _keyCodec = keyCodec;
+        _cache = cache;
+
+        try {
+            _channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int[] geometry = initialise(regionCount, recordsPerRegion, recordSize);
+            _regionCount = geometry[0];
+            _recordsPerRegion = geometry[1];
+            _recordSize = geometry[2];
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(_regionCount, _recordsPerRegion, _recordSize));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the invalidation bus " + file, e);
+        }
+
+        FileLock regionLock = null;
+        int region = -1;
+        for (int i = 0; i < _regionCount && regionLock == null; i++) {
+            try {
+                regionLock = _channel.tryLock(regionOffset(i), 1, false);
+                region = i;
+            } catch (OverlappingFileLockException e) {
+                // Claimed by another bus of this process
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not claim a region of the invalidation bus " + file, e);
+            }
+        }
+        if (regionLock == null) {
+            close(_channel);
+            throw new IllegalStateException("All the " + _regionCount + " regions of the invalidation bus are claimed");
+        }
+        _region = region;
+        _regionLock = regionLock;
+
+        // We start from the current state: the invalidations published before we opened are already in the backend
+        _positions = new long[_regionCount];
+        for (int i = 0; i < _regionCount; i++)
+            _positions[i] = sequence(i);
+
+        _executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-bus-poll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (pollIntervalMs > 0)
+            _executorService.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  Removes the key from the local cache, and from the caches of the other processes.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        _cache.invalidate(key);
+        publish(key);
+    }
+
+    /**
+     *  Empties the local cache, and the caches of the other processes.
+     */
+    public void invalidateAll() {
+        _cache.invalidateAll();
+        append(null, _allKeys);
+    }
+
+    /**
+     *  Removes the key from the caches of the other processes only. To call after a local put, so the new value stays
+     *  cached here.
+     * @param key The key whose value changed
+     */
+    public void publish(K key) {
+        if (key == null) {
+            append(null, _nullKey);
+            return;
+        }
+
+        byte[] keyBytes = _keyCodec.encode(key);
+        if (keyBytes.length > _recordSize - _recordHeaderSize)
+            append(null, _allKeys);
+        else
+            append(keyBytes, keyBytes.length);
+    }
+
+    /**
+     * Applies the invalidations the other processes published since the last poll.
+     * Note 1: O(number of regions) when nothing changed, no lock is shared with the writers.
+     * @return the number of invalidations applied
+     */
+    public int poll() {
+        _pollLock.lock();
+        try {
+            int applied = 0;
+            for (int region = 0; region < _regionCount; region++) {
+                if (region == _region)
+                    continue;
+
+                long sequence = sequence(region);
+                long position = _positions[region];
+                // Lapped while we were away, the records we missed are overwritten
+                if (sequence - position > _recordsPerRegion) {
+                    _cache.invalidateAll();
+                    applied++;
+                    position = sequence;
+                }
+
+                for (; position < sequence; position++) {
+                    if (!apply(region, position)) {
+                        // Lapped while we were reading. The sequence is read first, so every record before it is
+                        // covered by the invalidateAll, and we resume at the first record published after it.
+                        position = sequence(region);
+                        _cache.invalidateAll();
+                        applied++;
+                        break;
+                    }
+                    applied++;
+                }
+                _positions[region] = position;
+            }
+            return applied;
+        } finally {
+            _pollLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the background polls and releases the region of this process, for the next process to claim.
+     */
+    public void close() {
+        _executorService.shutdownNow();
+        try {
+            _regionLock.release();
+        } catch (IOException e) {
+            // The lock goes with the channel anyway
+        }
+        close(_channel);
+    }
+
+    /**
+     * Writes the file header if the file is new, under a lock so two processes creating it at once agree on it.
+     * @return the region count, the records per region and the record size of the file
+     */
+    private int[] initialise(int regionCount, int recordsPerRegion, int recordSize) throws IOException {
+        // The FileLock is per process, the monitor keeps two buses of this process from overlapping their locks
+        synchronized (InvalidationBus.class) {
+            FileLock lock = _channel.lock(0, _fileHeaderSize, false);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES);
+                _channel.read(header, 0);
+                header.flip();
+                if (header.remaining() == header.capacity()) {
+                    if (header.getInt(0) != _fileMagic)
+                        throw new IllegalStateException("The file is not an invalidation bus");
+                    return new int[] {header.getInt(4), header.getInt(8), header.getInt(12)};
+                }
+
+                // A new file: sizing it first so the sequences read as zero
+                long size = fileSize(regionCount, recordsPerRegion, recordSize);
+                _channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                header = ByteBuffer.allocate(4 * Integer.BYTES).putInt(_fileMagic).putInt(regionCount)
+                        .putInt(recordsPerRegion).putInt(recordSize);
+                header.flip();
+                _channel.write(header, 0);
+                _channel.force(true);
+                return new int[] {regionCount, recordsPerRegion, recordSize};
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Writes a record to our region, then publishes it.
+     * @param keyBytes the encoded key, null for the records without key
+     * @param keyLength the length of the key, or _allKeys or _nullKey
+     */
+    private void append(byte[] keyBytes, int keyLength) {
+        _publishLock.lock();
+        try {
+            long sequence = sequence(_region);
+            int offset = recordOffset(_region, sequence);
+            // Same as a seqlock: a reader still copying the record we overwrite sees its stamp change
+            _longs.setOpaque(_buffer, offset, 0L);
+            VarHandle.storeStoreFence();
+            _buffer.putInt(offset + Long.BYTES, keyLength);
+            if (keyBytes != null)
+                _buffer.put(offset + _recordHeaderSize, keyBytes);
+
+            // The stamp tells the readers which position the record holds, the sequence that it is complete
+            _longs.setRelease(_buffer, offset, sequence + 1);
+            _longs.setRelease(_buffer, regionOffset(_region), sequence + 1);
+        } finally {
+            _publishLock.unlock();
+        }
+    }
+
+    /**
+     * Reads a record of another region and applies it to the local cache.
+     * @return false if the writer overwrote the record before we finished reading it
+     */
+    private boolean apply(int region, long position) {
+        int offset = recordOffset(region, position);
+        if ((long) _longs.getAcquire(_buffer, offset) != position + 1)
+            return false;
+
+        int keyLength = _buffer.getInt(offset + Long.BYTES);
+        byte[] keyBytes = null;
+        if (keyLength > 0 && keyLength <= _recordSize - _recordHeaderSize) {
+            keyBytes = new byte[keyLength];
+            _buffer.get(offset + _recordHeaderSize, keyBytes);
+        }
+
+        // The key is only valid if the stamp did not move while we copied it
+        VarHandle.loadLoadFence();
+        if ((long) _longs.getAcquire(_buffer, offset) != position + 1)
+            return false;
+
+        if (keyLength == _nullKey)
+            _cache.invalidate(null);
+        else if (keyBytes != null)
+            _cache.invalidate(_keyCodec.decode(ByteBuffer.wrap(keyBytes).asReadOnlyBuffer()));
+        else
+            _cache.invalidateAll();
+        return true;
+    }
+
+    /**
+     * @return the number of records ever published to the region
+     */
+    private long sequence(int region) {
+        return (long) _longs.getAcquire(_buffer, regionOffset(region));
+    }
+
+    private int regionOffset(int region) {
+        return _fileHeaderSize + region * (_regionHeaderSize + _recordsPerRegion * _recordSize);
+    }
+
+    private int recordOffset(int region, long position) {
+        return regionOffset(region) + _regionHeaderSize + (int) (position % _recordsPerRegion) * _recordSize;
+    }
+
+    private static long fileSize(int regionCount, int recordsPerRegion, int recordSize) {
+        long size = _fileHeaderSize + (long) regionCount * (_regionHeaderSize + (long) recordsPerRegion * recordSize);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The invalidation bus cannot exceed 2GB");
+        return size;
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How CacheManager behaves when its data retrieval function fails or finds nothing, so a struggling backend is not
+ * hit by every caller at once.
+ * Technical: a failed load is cached for a backoff period, doubling with each consecutive failure of the key up to a
+ * maximum. Until it elapses, the callers of that key get the cached failure (or the stale value, see below) without
+ * calling the function. The first caller after it retries, the others of the key waiting for its outcome.
+ * A null value, i.e. a miss of the backend, can be cached for a limited time only, and so can the values.
+ * Note 1: serving stale values requires a time to live, as an entry that never expires is never stale.
+ */
+public final class LoadFailurePolicy {
+
+    private static final LoadFailurePolicy _none = new LoadFailurePolicy(0, 0, Long.MAX_VALUE, Long.MAX_VALUE, false);
+
+    private final long _initialBackoffNanos;
+    private final long _maximumBackoffNanos;
+    private final long _negativeTimeToLiveNanos;
+    private final long _timeToLiveNanos;
+    private final boolean _serveStale;
+
+    /**
+     * New instance of this class, caching the failures
+     * @param initialBackoffMs time the first failure of a key is cached
+     * @param maximumBackoffMs cap of the doubling backoff
+     */
+    public LoadFailurePolicy(long initialBackoffMs, long maximumBackoffMs) {
+        this(initialBackoffMs, maximumBackoffMs, Long.MAX_VALUE);
+    }
+
+    /**
+     * New instance of this class, caching the failures and the null values
+     * @param initialBackoffMs time the first failure of a key is cached
+     * @param maximumBackoffMs cap of the doubling backoff
+     * @param negativeTimeToLiveMs time a null value is cached, Long.MAX_VALUE for ever
+     */
+    public LoadFailurePolicy(long initialBackoffMs, long maximumBackoffMs, long negativeTimeToLiveMs) {
+        this(initialBackoffMs, maximumBackoffMs, negativeTimeToLiveMs, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * New instance of this class
+     * @param initialBackoffMs time the first failure of a key is cached, 0 not to cache the failures
+     * @param maximumBackoffMs cap of the doubling backoff
+     * @param negativeTimeToLiveMs time a null value is cached, Long.MAX_VALUE for ever
+     * @param timeToLiveMs time a value is cached, Long.MAX_VALUE for ever
+     * @param serveStale whether a failed reload of an expired value returns that value instead of throwing
+     */
+    public LoadFailurePolicy(long initialBackoffMs, long maximumBackoffMs, long negativeTimeToLiveMs, long timeToLiveMs,
+                             boolean serveStale) {
+        if (initialBackoffMs < 0 || maximumBackoffMs < initialBackoffMs)
+            throw new IllegalArgumentException("The backoff must be positive, and its maximum above its initial value");
+        if (negativeTimeToLiveMs < 1 || timeToLiveMs < 1)
+            throw new IllegalArgumentException("The times to live must be at least 1ms");
+
+        _initialBackoffNanos = toNanos(initialBackoffMs);
+        _maximumBackoffNanos = toNanos(maximumBackoffMs);
+        _negativeTimeToLiveNanos = toNanos(negativeTimeToLiveMs);
+        _timeToLiveNanos = toNanos(timeToLiveMs);
+        _serveStale = serveStale;
+    }
+
+    /**
+     * @return the policy of a CacheManager by default: failures are not cached, values never expire
+     */
+    public static LoadFailurePolicy none() {
+        return _none;
+    }
+
+    boolean cachesFailures() {
+        return _initialBackoffNanos > 0;
+    }
+
+    boolean servesStale() {
+        return _serveStale;
+    }
+
+    /**
+     * @param consecutiveFailures the number of failures of the key in a row, from 1
+     * @return the time the last failure is cached
+     */
+    long backoffNanos(int consecutiveFailures) {
+        int doublings = Math.min(consecutiveFailures - 1, 62);
+        long backoff = _initialBackoffNanos << doublings;
+        return backoff >>> doublings != _initialBackoffNanos ? _maximumBackoffNanos : Math.min(backoff, _maximumBackoffNanos);
+    }
+
+    /**
+     * @return the time a value is cached, Long.MAX_VALUE for ever
+     */
+    long timeToLiveNanos(Object value) {
+        return value == null ? _negativeTimeToLiveNanos : _timeToLiveNanos;
+    }
+
+    /**
+     * Long.MAX_VALUE stays the marker of for ever, the other values saturate
+     */
+    private static long toNanos(long ms) {
+        return ms == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+}
@@ -0,0 +1,202 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A per thread L0 in front of a shared Cache, so the hottest keys are read without a hash map lookup nor a write to
+ * shared memory.
+ * Technical: each thread owns a small direct-mapped array (one slot per key hash, the newcomer replacing the previous
+ * key of the slot), filled on every read through the shared cache.
+ * Each slot remembers the epoch of the key's stripe when it was filled. put and invalidate bump the epoch of the
+ * stripe after updating the shared cache, so the slots filled before are ignored from then on.
+ * An L0 hit only reads the epoch, whose cache line stays shared by the cores until the next write to that stripe.
+ * Note 1: the invalidations must go through this class to be observed, e.g. by passing it to the InvalidationBus.
+ * Note 2: an entry evicted from the shared cache for its size may still be served from L0, its value being unchanged.
+ * Note 3: the L0 knows nothing of the time to live, the collected soft values or the cached failures of the shared
+ * cache. An L0 copy is only served for the maximum staleness after it was read from the shared cache, 1s by default,
+ * so a value the shared cache expired stays visible that long at most.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class NearCache<K, V> implements Cache<K, V> {
+
+    /**
+     * Stands for the null key in the slots, where null means empty
+     */
+    private static final Object _nullKey = new Object();
+
+    /**
+     * Number of epoch stripes, a power of 2
+     */
+    private static final int _stripes = 64;
+
+    /**
+     * Distance between two epochs in the array, so each one lives on its own cache line
+     */
+    private static final int _stripePadding = 8;
+
+    private final Cache<K, V> _cache;
+
+    /**
+     * Number of slots of each L0, a power of 2
+     */
+    private final int _slotsPerThread;
+
+    /**
+     * Time an L0 copy is served for after being read from the shared cache, Long.MAX_VALUE for ever
+     */
+    private final long _maximumStalenessNanos;
+
+    /**
+     * Epoch of each stripe, bumped by the writes of its keys
+     */
+    private final AtomicLongArray _epochs = new AtomicLongArray(_stripes * _stripePadding);
+
+    /**
+     * The L0 of each thread
+     */
+    private final ThreadLocal<Slots> _slots;
+
+    /**
+     * New instance of this class, with 64 slots per thread and copies served for 1s at most
+     * @param cache the shared cache
+     */
+    public NearCache(Cache<K, V> cache) {
+        this(cache, 64);
+    }
+
+    /**
+     * New instance of this class, with copies served for 1s at most
+     * @param cache the shared cache
+     * @param slotsPerThread number of entries of each L0, rounded up to a power of 2
+     */
+    public NearCache(Cache<K, V> cache, int slotsPerThread) {
+        this(cache, slotsPerThread, 1000);
+    }
+
+    /**
+     * New instance of this class
+     * Note 1: each thread reading through the cache keeps its own slots, until the thread dies.
+     * @param cache the shared cache
+     * @param slotsPerThread number of entries of each L0, rounded up to a power of 2
+     * @param maximumStalenessMs time an L0 copy is served for after being read from the shared cache, Long.MAX_VALUE
+     *                           for ever when the shared cache never expires its entries
+     */
+    public NearCache(Cache<K, V> cache, int slotsPerThread, long maximumStalenessMs) {
+        if (slotsPerThread < 1 || slotsPerThread > 1 << 30)
+            throw new IllegalArgumentException("The L0 must hold between 1 and 2^30 entries");
+        if (maximumStalenessMs < 1)
+            throw new IllegalArgumentException("The maximum staleness must be at least 1ms");
+
+        _cache = cache;
+        _maximumStalenessNanos = maximumStalenessMs == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maximumStalenessMs);
+        _slotsPerThread = slotsPerThread == 1 ? 1 : Integer.highestOneBit(slotsPerThread - 1) << 1;
+        _slots = ThreadLocal.withInitial(() -> new Slots(_slotsPerThread));
+    }
+
+    /**
+     *  Returns the cached value V linked to the provided key K, from the L0 of the calling thread if up to date,
+     *  else from the shared cache.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value V from a key K
+     * @return The matching value for the given key
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<K, V> dataRetrievalFunction) {
+        Object slotKey = key == null ? _nullKey : key;
+        int hash = hash(slotKey);
+        // Read before the shared cache: a write landing in between leaves the slot with an outdated epoch
+        long epoch = _epochs.get(stripe(hash));
+
+        Slots slots = _slots.get();
+        int index = hash & (_slotsPerThread - 1);
+        if (slots._epochs[index] == epoch && slotKey.equals(slots._keys[index]) && fresh(slots._filledAt[index]))
+            return (V) slots._values[index];
+
+        // Read before the shared cache as well, so the copy is never served past the staleness
+        long filledAt = _maximumStalenessNanos == Long.MAX_VALUE ? 0L : System.nanoTime();
+        V value = _cache.get(key, dataRetrievalFunction);
+        slots._keys[index] = slotKey;
+        slots._values[index] = value;
+        slots._epochs[index] = epoch;
+        slots._filledAt[index] = filledAt;
+        return value;
+    }
+
+    /**
+     *  Caches the provided value for the key K in the shared cache, and outdates the copies held by the L0s.
+     * @param key The key of the value
+     * @param value The new value
+     */
+    public void put(K key, V value) {
+        _cache.put(key, value);
+        _epochs.incrementAndGet(stripe(hash(key == null ? _nullKey : key)));
+    }
+
+    /**
+     *  Removes the value cached for the key K from the shared cache, and outdates the copies held by the L0s.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        _cache.invalidate(key);
+        _epochs.incrementAndGet(stripe(hash(key == null ? _nullKey : key)));
+    }
+
+    /**
+     *  Removes every cached value from the shared cache, and outdates every L0.
+     */
+    public void invalidateAll() {
+        _cache.invalidateAll();
+        for (int stripe = 0; stripe < _stripes; stripe++)
+            _epochs.incrementAndGet(stripe * _stripePadding);
+    }
+
+    /**
+     * The clock is only read when the copies have a maximum staleness
+     */
+    private boolean fresh(long filledAt) {
+        return _maximumStalenessNanos == Long.MAX_VALUE || System.nanoTime() - filledAt < _maximumStalenessNanos;
+    }
+
+    /**
+     * Spreads the high bits of the hash code, as the slot index only uses the low ones
+     */
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the index of the key's epoch in the array. Fibonacci hashing takes the stripe from the high bits of the
+     * product, so small consecutive keys spread over the stripes instead of sharing one.
+     */
+    private static int stripe(int hash) {
+        return ((hash * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(_stripes))) * _stripePadding;
+    }
+
+    /**
+     * The L0 of a thread. Only its thread reads and writes it.
+     */
+    private static final class Slots {
+        private final Object[] _keys;
+        private final Object[] _values;
+
+        /**
+         * Epoch of the stripe of each key when its slot was filled. Empty slots hold null keys, never matched.
+         */
+        private final long[] _epochs;
+
+        /**
+         * System.nanoTime when each slot was filled, 0 if the copies have no maximum staleness
+         */
+        private final long[] _filledAt;
+
+        Slots(int size) {
+            _keys = new Object[size];
+            _values = new Object[size];
+            _epochs = new long[size];
+            _filledAt = new long[size];
+        }
+    }
+}
@@ -0,0 +1,690 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A cache keeping its keys and values serialised outside of the java heap, so the garbage collector never scans them.
+ * Technical: the memory is split into segments (direct or memory-mapped ByteBuffers). Each segment is dedicated to a
+ * slab class, i.e. fixed size slots of 64 bytes, 128 bytes, and so forth up to the segment size.
+ * An entry is written in the smallest slot that fits: [int key length][int value length][key bytes][value bytes].
+ * The index is an open addressing table over two long[]: the 64 bits hash of the key bytes, and the slot pointer
+ * (segment number on the high 32 bits, offset within the segment on the low 32 bits).
+ * When every segment is used, the least recently accessed segment is evicted as a whole and handed to the slab
+ * class needing room.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class OffHeapCache<K, V> implements Cache<K, V>, Closeable {
+
+    /**
+     * Size of the smallest slab class
+     */
+    private static final int _minimumSlotSize = 64;
+
+    /**
+     * [int key length][int value length]
+     */
+    private static final int _headerSize = 8;
+
+    /**
+     * Length written for a null key or a null value
+     */
+    private static final int _nullLength = -1;
+
+    /**
+     * Marks a free slot of the index
+     */
+    private static final long _emptySlot = -1L;
+
+    /**
+     * Lock that allows multiple reads at the same time
+     */
+    private final ReentrantReadWriteLock _readWriteLock = new ReentrantReadWriteLock();
+
+    /**
+     * Readlock shortcut for convenience
+     */
+    private final Lock _readLock = _readWriteLock.readLock();
+
+    /**
+     * Writelock shortcut for convenience
+     */
+    private final Lock _writeLock = _readWriteLock.writeLock();
+
+    private final Codec<K> _keyCodec;
+
+    private final Codec<V> _valueCodec;
+
+    /**
+     * Size in bytes of every segment, a power of 2
+     */
+    private final int _segmentSize;
+
+    /**
+     * The memory of each segment, null until first needed
+     */
+    private final ByteBuffer[] _segments;
+
+    /**
+     * Read only duplicates of the segments, sliced to hand out views on the values
+     */
+    private final ByteBuffer[] _segmentViews;
+
+    /**
+     * Slab class of each segment, -1 when not assigned yet
+     */
+    private final int[] _segmentClass;
+
+    /**
+     * Bump pointer of each segment: the offset of its first never used slot
+     */
+    private final int[] _segmentFill;
+
+    /**
+     * Number of entries stored in each segment
+     */
+    private final int[] _segmentEntries;
+
+    /**
+     * Last time (nanos) an entry of each segment was read or written, drives the eviction
+     */
+    private final long[] _segmentLastAccess;
+
+    /**
+     * Segment currently being filled by each slab class, -1 if none
+     */
+    private final int[] _classCurrentSegment;
+
+    /**
+     * Slots released by each slab class, reused before bumping
+     */
+    private final SlotStack[] _freeSlots;
+
+    /**
+     * The file backing the segments when memory-mapped, null for direct buffers
+     */
+    private final FileChannel _channel;
+
+    /**
+     * Hashes of the keys in the index
+     */
+    private long[] _indexHashes;
+
+    /**
+     * Slot pointers of the keys in the index, _emptySlot when free
+     */
+    private long[] _indexPointers;
+
+    /**
+     * Number of cached entries
+     */
+    private int _size;
+
+    /**
+     * New instance of this class, storing its segments in direct buffers.
+     * Note 1: direct memory is capped by -XX:MaxDirectMemorySize.
+     * @param keyCodec serialises the keys
+     * @param valueCodec serialises the values
+     * @param segmentSize size in bytes of each segment, a power of 2. It also caps the size of an entry.
+     * @param maximumSegments the maximum number of segments, the cache holds at most segmentSize * maximumSegments bytes
+     */
+    public OffHeapCache(Codec<K> keyCodec, Codec<V> valueCodec, int segmentSize, int maximumSegments) {
+        this(keyCodec, valueCodec, segmentSize, maximumSegments, null);
+    }
+
+    /**
+     * New instance of this class, storing its segments in a memory-mapped file.
+     * The file is a scratch space: it is truncated on opening and its content is not meant to survive a restart.
+     * @param keyCodec serialises the keys
+     * @param valueCodec serialises the values
+     * @param segmentSize size in bytes of each segment, a power of 2. It also caps the size of an entry.
+     * @param maximumSegments the maximum number of segments, the cache holds at most segmentSize * maximumSegments bytes
+     * @param file the file to map, null to use direct buffers
+     */
+    public OffHeapCache(Codec<K> keyCodec, Codec<V> valueCodec, int segmentSize, int maximumSegments, Path file) {
+        if (segmentSize < _minimumSlotSize || Integer.bitCount(segmentSize) != 1)
+            throw new IllegalArgumentException("The segment size must be a power of 2 of at least " + _minimumSlotSize + " bytes");
+        if (maximumSegments < 1)
+            throw new IllegalArgumentException("At least one segment is needed");
+
+        _keyCodec = keyCodec;
+        _valueCodec = valueCodec;
+        _segmentSize = segmentSize;
+        _segments = new ByteBuffer[maximumSegments];
+        _segmentViews = new ByteBuffer[maximumSegments];
+        _segmentClass = new int[maximumSegments];
+        _segmentFill = new int[maximumSegments];
+        _segmentEntries = new int[maximumSegments];
+        _segmentLastAccess = new long[maximumSegments];
+        Arrays.fill(_segmentClass, -1);
+
+        int nbClasses = Integer.numberOfTrailingZeros(segmentSize / _minimumSlotSize) + 1;
+        _classCurrentSegment = new int[nbClasses];
+        _freeSlots = new SlotStack[nbClasses];
+        Arrays.fill(_classCurrentSegment, -1);
+        for (int i = 0; i < nbClasses; i++)
+            _freeSlots[i] = new SlotStack();
+
+        _indexHashes = new long[16];
+        _indexPointers = new long[16];
+        Arrays.fill(_indexPointers, _emptySlot);
+
+        try {
+            _channel = file == null ? null : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the file backing the cache", e);
+        }
+    }
+
+    /**
+     *  Returns the cached value V linked to the provided key K.
+     *  If not in the cache, the provided function will be used to retrieve the value. It will then be cached and returned.
+     *  Note 1: every call deserialises a new instance of the value, see getView to avoid the copy.
+     *  Note 2: values larger than a segment are returned but not cached.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value V from a key K
+     * @return The matching value for the given key
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     */
+    public V get(K key, Function<K, V> dataRetrievalFunction) {
+        byte[] keyBytes = key == null ? null : _keyCodec.encode(key);
+        long hash = hash(keyBytes);
+
+        _readLock.lock();
+        try {
+            long pointer = find(keyBytes, hash);
+            if (pointer != _emptySlot)
+                return decodeValue(pointer);
+        } finally {
+            _readLock.unlock();
+        }
+
+        return load(key, keyBytes, hash, dataRetrievalFunction);
+    }
+
+    /**
+     * Same as get, but passes a read only view on the serialised value to a reader instead of deserialising a copy.
+     * Note 1: the view points at the cache memory. The reader runs under the read lock, so the slot cannot be freed and
+     * handed to another entry while it reads, but the view must not escape it.
+     * Note 2: the reader must not write to this cache, the writes waiting for the readers to finish.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value V from a key K
+     * @param reader reads the value from the view, given null if the value is null or could not be cached
+     * @param <R> the type of what the reader extracts
+     * @return what the reader returned
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     */
+    public <R> R getView(K key, Function<K, V> dataRetrievalFunction, Function<ByteBuffer, R> reader) {
+        byte[] keyBytes = key == null ? null : _keyCodec.encode(key);
+        long hash = hash(keyBytes);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            _readLock.lock();
+            try {
+                long pointer = find(keyBytes, hash);
+                if (pointer != _emptySlot)
+                    return reader.apply(valueView(pointer));
+            } finally {
+                _readLock.unlock();
+            }
+
+            // The entry may be too large to be cached, in which case the second lookup will not find it either
+            if (attempt == 0)
+                load(key, keyBytes, hash, dataRetrievalFunction);
+        }
+        return reader.apply(null);
+    }
+
+    /**
+     *  Caches the provided value for the key K, replacing the value cached so far if any.
+     *  Note 1: a value larger than a segment is not cached, and the previous value is removed.
+     * @param key The key of the value
+     * @param value The new value
+     */
+    public void put(K key, V value) {
+        byte[] keyBytes = key == null ? null : _keyCodec.encode(key);
+        byte[] valueBytes = value == null ? null : _valueCodec.encode(value);
+        long hash = hash(keyBytes);
+        int entrySize = _headerSize + length(keyBytes) + length(valueBytes);
+
+        // Same as the loads, so a load running for that key cannot overwrite the new value
+        synchronized (key == null ? this : key) {
+            _writeLock.lock();
+            try {
+                if (entrySize <= _segmentSize)
+                    store(keyBytes, valueBytes, hash, entrySize);
+                else
+                    remove(keyBytes, hash);
+            } finally {
+                _writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     *  Removes the value cached for the key K, if any. Its slot goes back to the free slots of its slab class.
+     *  Note 1: synchronised on the key like the loads, so a load running for that key cannot store the value it read
+     *  before the invalidation.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        byte[] keyBytes = key == null ? null : _keyCodec.encode(key);
+        long hash = hash(keyBytes);
+
+        synchronized (key == null ? this : key) {
+            _writeLock.lock();
+            try {
+                remove(keyBytes, hash);
+            } finally {
+                _writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     *  Removes every cached value. The segments stay allocated, but go back to no slab class.
+     */
+    public void invalidateAll() {
+        _writeLock.lock();
+        try {
+            Arrays.fill(_segmentClass, -1);
+            Arrays.fill(_segmentFill, 0);
+            Arrays.fill(_segmentEntries, 0);
+            Arrays.fill(_classCurrentSegment, -1);
+            for (SlotStack freeSlots : _freeSlots)
+                freeSlots.clear();
+
+            Arrays.fill(_indexPointers, _emptySlot);
+            _size = 0;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the number of cached entries
+     */
+    public int size() {
+        _readLock.lock();
+        try {
+            return _size;
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the file backing the cache, if any. The mapped memory is released once garbage collected.
+     */
+    public void close() throws IOException {
+        if (_channel != null)
+            _channel.close();
+    }
+
+    /**
+     * Calls the data retrieval function and stores its result, blocking only the loads of the same key.
+     */
+    private V load(K key, byte[] keyBytes, long hash, Function<K, V> dataRetrievalFunction) {
+        // Same as CacheManager, we synchronise only on the key, so not to block the remaining of the cache
+        synchronized (key == null ? this : key) {
+            _readLock.lock();
+            try {
+                long pointer = find(keyBytes, hash);
+                if (pointer != _emptySlot)
+                    return decodeValue(pointer);
+            } finally {
+                _readLock.unlock();
+            }
+
+            V retrievedValue;
+            try {
+                retrievedValue = dataRetrievalFunction.apply(key);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", e);
+            }
+
+            // Serialisation happens outside of the lock
+            byte[] valueBytes = retrievedValue == null ? null : _valueCodec.encode(retrievedValue);
+            int entrySize = _headerSize + length(keyBytes) + length(valueBytes);
+            if (entrySize > _segmentSize)
+                return retrievedValue;
+
+            _writeLock.lock();
+            try {
+                store(keyBytes, valueBytes, hash, entrySize);
+            } finally {
+                _writeLock.unlock();
+            }
+            return retrievedValue;
+        }
+    }
+
+    /**
+     * Writes the entry in a slot and references it in the index. Must be called under the write lock.
+     */
+    private void store(byte[] keyBytes, byte[] valueBytes, long hash, int entrySize) {
+        int previous = indexOf(keyBytes, hash);
+        if (previous >= 0)
+            removeFromIndex(previous);
+
+        long pointer = allocate(slabClass(entrySize));
+        int segment = segment(pointer);
+        int offset = offset(pointer);
+        ByteBuffer buffer = _segments[segment];
+        buffer.putInt(offset, keyBytes == null ? _nullLength : keyBytes.length);
+        buffer.putInt(offset + 4, valueBytes == null ? _nullLength : valueBytes.length);
+        if (keyBytes != null)
+            buffer.put(offset + _headerSize, keyBytes);
+        if (valueBytes != null)
+            buffer.put(offset + _headerSize + length(keyBytes), valueBytes);
+
+        _segmentEntries[segment]++;
+        _segmentLastAccess[segment] = System.nanoTime();
+
+        if (PrimitiveHashing.needsResize(_size + 1, _indexPointers.length))
+            rebuildIndex(_indexPointers.length << 1, -1);
+        insertInIndex(hash, pointer);
+        _size++;
+    }
+
+    /**
+     * Removes the entry of a key, if any. Must be called under the write lock.
+     */
+    private void remove(byte[] keyBytes, long hash) {
+        int index = indexOf(keyBytes, hash);
+        if (index >= 0)
+            removeFromIndex(index);
+    }
+
+    /**
+     * Takes a slot from the given slab class. Must be called under the write lock.
+     * Reuses a released slot, else bumps into the current segment of the class, else takes an unused segment,
+     * else evicts the least recently accessed segment.
+     * @return the pointer of the slot
+     */
+    private long allocate(int slabClass) {
+        if (!_freeSlots[slabClass].isEmpty())
+            return _freeSlots[slabClass].pop();
+
+        int slotSize = _minimumSlotSize << slabClass;
+        int segment = _classCurrentSegment[slabClass];
+        if (segment >= 0 && _segmentFill[segment] + slotSize <= _segmentSize) {
+            int offset = _segmentFill[segment];
+            _segmentFill[segment] += slotSize;
+            return pointer(segment, offset);
+        }
+
+        segment = unusedSegment();
+        if (segment < 0)
+            segment = evictSegment();
+
+        _segmentClass[segment] = slabClass;
+        _segmentFill[segment] = slotSize;
+        _classCurrentSegment[slabClass] = segment;
+        return pointer(segment, 0);
+    }
+
+    /**
+     * @return the first segment not assigned to a slab class yet, its memory allocated, or -1 if all are assigned
+     */
+    private int unusedSegment() {
+        for (int segment = 0; segment < _segments.length; segment++) {
+            if (_segmentClass[segment] >= 0)
+                continue;
+
+            if (_segments[segment] == null) {
+                try {
+                    _segments[segment] = _channel == null
+                            ? ByteBuffer.allocateDirect(_segmentSize)
+                            : _channel.map(FileChannel.MapMode.READ_WRITE, (long) segment * _segmentSize, _segmentSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not map a segment of the cache", e);
+                }
+                _segmentViews[segment] = _segments[segment].asReadOnlyBuffer();
+            }
+            return segment;
+        }
+        return -1;
+    }
+
+    /**
+     * Drops every entry of the least recently accessed segment and detaches it from its slab class.
+     * Note 1: linear in the size of the index, which is fine as long as segments are large and evictions rare.
+     * @return the evicted segment
+     */
+    private int evictSegment() {
+        int victim = 0;
+        for (int segment = 1; segment < _segments.length; segment++) {
+            if (_segmentLastAccess[segment] < _segmentLastAccess[victim])
+                victim = segment;
+        }
+
+        int slabClass = _segmentClass[victim];
+        _freeSlots[slabClass].removeSegment(victim);
+        if (_classCurrentSegment[slabClass] == victim)
+            _classCurrentSegment[slabClass] = -1;
+
+        _size -= _segmentEntries[victim];
+        _segmentEntries[victim] = 0;
+        _segmentClass[victim] = -1;
+        rebuildIndex(_indexPointers.length, victim);
+        return victim;
+    }
+
+    /**
+     * Looks the key up in the index. Must be called under a lock.
+     * @return the pointer of the entry, or _emptySlot
+     */
+    private long find(byte[] keyBytes, long hash) {
+        int index = indexOf(keyBytes, hash);
+        return index < 0 ? _emptySlot : _indexPointers[index];
+    }
+
+    /**
+     * Probes the index, comparing the stored key bytes as different keys may share a hash.
+     * @return the position of the key in the index, or -1
+     */
+    private int indexOf(byte[] keyBytes, long hash) {
+        int mask = _indexPointers.length - 1;
+        for (int index = indexFor(hash, mask); _indexPointers[index] != _emptySlot; index = (index + 1) & mask) {
+            if (_indexHashes[index] == hash && keyEquals(_indexPointers[index], keyBytes))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a pointer to the index, which must have room for it
+     */
+    private void insertInIndex(long hash, long pointer) {
+        int mask = _indexPointers.length - 1;
+        int index = indexFor(hash, mask);
+        while (_indexPointers[index] != _emptySlot)
+            index = (index + 1) & mask;
+
+        _indexHashes[index] = hash;
+        _indexPointers[index] = pointer;
+    }
+
+    /**
+     * Removes an entry from the index and releases its slot.
+     * Note 1: the following entries of the probe sequence are shifted back, so lookups never need tombstones.
+     * @param index the position of the entry in the index
+     */
+    private void removeFromIndex(int index) {
+        int mask = _indexPointers.length - 1;
+        long pointer = _indexPointers[index];
+        int segment = segment(pointer);
+        _freeSlots[_segmentClass[segment]].push(pointer);
+        _segmentEntries[segment]--;
+        _size--;
+
+        int next = (index + 1) & mask;
+        while (_indexPointers[next] != _emptySlot) {
+            int home = indexFor(_indexHashes[next], mask);
+            // The entry can move back if its home slot is not within (index, next]
+            boolean canMove = index <= next ? (home <= index || home > next) : (home <= index && home > next);
+            if (canMove) {
+                _indexHashes[index] = _indexHashes[next];
+                _indexPointers[index] = _indexPointers[next];
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+        _indexPointers[index] = _emptySlot;
+    }
+
+    /**
+     * Rehashes the index into new arrays.
+     * @param capacity the new capacity, a power of 2
+     * @param droppedSegment the entries of that segment are not copied, -1 to keep them all
+     */
+    private void rebuildIndex(int capacity, int droppedSegment) {
+        long[] oldHashes = _indexHashes;
+        long[] oldPointers = _indexPointers;
+        _indexHashes = new long[capacity];
+        _indexPointers = new long[capacity];
+        Arrays.fill(_indexPointers, _emptySlot);
+
+        for (int i = 0; i < oldPointers.length; i++) {
+            if (oldPointers[i] != _emptySlot && segment(oldPointers[i]) != droppedSegment)
+                insertInIndex(oldHashes[i], oldPointers[i]);
+        }
+    }
+
+    /**
+     * Compares the key bytes with the key stored in a slot
+     */
+    private boolean keyEquals(long pointer, byte[] keyBytes) {
+        ByteBuffer buffer = _segments[segment(pointer)];
+        int offset = offset(pointer);
+        int storedLength = buffer.getInt(offset);
+        if (keyBytes == null)
+            return storedLength == _nullLength;
+        if (storedLength != keyBytes.length)
+            return false;
+
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (buffer.get(offset + _headerSize + i) != keyBytes[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deserialises the value of a slot. Must be called under a lock.
+     */
+    private V decodeValue(long pointer) {
+        ByteBuffer view = valueView(pointer);
+        return view == null ? null : _valueCodec.decode(view);
+    }
+
+    /**
+     * Slices a read only view on the value of a slot, and records the access. Must be called under a lock.
+     */
+    private ByteBuffer valueView(long pointer) {
+        int segment = segment(pointer);
+        int offset = offset(pointer);
+        ByteBuffer view = _segmentViews[segment];
+        int keyLength = Math.max(0, view.getInt(offset));
+        int valueLength = view.getInt(offset + 4);
+
+        // Benign race between readers, we only need an approximate recency
+        _segmentLastAccess[segment] = System.nanoTime();
+
+        return valueLength == _nullLength ? null : view.slice(offset + _headerSize + keyLength, valueLength);
+    }
+
+    /**
+     * @return the index of the smallest slab class able to hold that many bytes
+     */
+    private static int slabClass(int entrySize) {
+        int slotSize = Math.max(_minimumSlotSize, Integer.highestOneBit(entrySize - 1) << 1);
+        return Integer.numberOfTrailingZeros(slotSize / _minimumSlotSize);
+    }
+
+    /**
+     * 64 bits FNV-1a hash of the key bytes, finalised with a mix so the low bits are usable for the index
+     */
+    private static long hash(byte[] keyBytes) {
+        if (keyBytes == null)
+            return 0L;
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : keyBytes) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static int indexFor(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static long pointer(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segment(long pointer) {
+        return (int) (pointer >>> 32);
+    }
+
+    private static int offset(long pointer) {
+        return (int) pointer;
+    }
+
+    /**
+     * A growable stack of slot pointers, so released slots do not cost an object each
+     */
+    private static final class SlotStack {
+        private long[] _pointers = new long[16];
+        private int _size;
+
+        boolean isEmpty() {
+            return _size == 0;
+        }
+
+        void push(long pointer) {
+            if (_size == _pointers.length)
+                _pointers = Arrays.copyOf(_pointers, _size << 1);
+            _pointers[_size++] = pointer;
+        }
+
+        long pop() {
+            return _pointers[--_size];
+        }
+
+        void clear() {
+            _size = 0;
+        }
+
+        /**
+         * Forgets the slots of an evicted segment
+         */
+        void removeSegment(int segment) {
+            int kept = 0;
+            for (int i = 0; i < _size; i++) {
+                if (segment(_pointers[i]) != segment)
+                    _pointers[kept++] = _pointers[i];
+            }
+            _size = kept;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Hashing, probing and resizing helpers shared by the caches specialised for primitive keys.
+ * Technical: the tables use open addressing with linear probing, the key 0 marking a free slot.
+ * The values live in a parallel array whose type depends on the cache, so the helpers only handle the keys and
+ * return the slot indexes the callers read or write their values at.
+ */
+final class PrimitiveHashing {
+
+    /**
+     * Returned by the lookups when the key is not in the table
+     */
+    static final int _notFound = -1;
+
+    /**
+     * Number of lock stripes used to serialise the loads of a given key
+     */
+    static final int _loadLockStripes = 64;
+
+    /**
+     * Linear probing degrades quickly above half full tables
+     */
+    private static final float _loadFactor = 0.5f;
+
+    /**
+     * Largest power of 2 an array can be sized to
+     */
+    private static final int _maximumCapacity = 1 << 30;
+
+    private PrimitiveHashing() {
+    }
+
+    /**
+     * Moves the value of a slot of the old table to a slot of the new one, see rehash
+     */
+    interface SlotMover {
+        void move(int from, int to);
+    }
+
+    /**
+     * Spreads the bits of a long key (Fibonacci hashing), so sequential ids do not end up in neighbouring slots
+     */
+    static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Spreads the bits of an int key (Fibonacci hashing)
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the smallest power of 2 table able to hold the expected number of entries
+     */
+    static int tableSizeFor(int expectedSize) {
+        long needed = Math.max(2L, (long) Math.ceil(expectedSize / (double) _loadFactor));
+        if (needed > _maximumCapacity)
+            throw new IllegalArgumentException("The expected size is too large: " + expectedSize);
+
+        return Integer.highestOneBit((int) (needed - 1)) << 1;
+    }
+
+    /**
+     * @return true if a table of the given capacity would be too full with that many entries
+     */
+    static boolean needsResize(int size, int capacity) {
+        return size > capacity * _loadFactor;
+    }
+
+    /**
+     * @return the capacity of the table replacing a full one
+     * @throws IllegalStateException if the table already has 2^30 slots, the largest power of 2 an array can have
+     */
+    static int grow(int capacity) {
+        if (capacity >= _maximumCapacity)
+            throw new IllegalStateException("The cache cannot hold more than " + (_maximumCapacity / 2) + " entries");
+
+        return capacity << 1;
+    }
+
+    /**
+     * @return one lock per stripe, to serialise the loads of the keys falling in it
+     */
+    static Object[] newLoadLocks() {
+        Object[] loadLocks = new Object[_loadLockStripes];
+        for (int i = 0; i < _loadLockStripes; i++)
+            loadLocks[i] = new Object();
+        return loadLocks;
+    }
+
+    /**
+     * @return the stripe of loadLocks guarding the loads of the keys with that hash
+     */
+    static Object loadLock(Object[] loadLocks, int hash) {
+        return loadLocks[hash & (_loadLockStripes - 1)];
+    }
+
+    /**
+     * Linear probing from the hash of the key until we find it, or a free slot.
+     * The loop is bounded by the table length, so a torn optimistic read cannot spin forever.
+     * @return the index of the key, or _notFound
+     */
+    static int indexOf(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            int current = keys[index];
+            if (current == key)
+                return index;
+            if (current == 0)
+                return _notFound;
+            index = (index + 1) & mask;
+        }
+        return _notFound;
+    }
+
+    /**
+     * Same as indexOf(int[], int), for long keys
+     */
+    static int indexOf(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        for (int probes = 0; probes < keys.length; probes++) {
+            long current = keys[index];
+            if (current == key)
+                return index;
+            if (current == 0L)
+                return _notFound;
+            index = (index + 1) & mask;
+        }
+        return _notFound;
+    }
+
+    /**
+     * Linear probing from the hash of the key until we find it, or the free slot it goes to.
+     * Must be called under the write lock, on a table below its load factor so there is a free slot.
+     * @return the index of the key, or of the free slot
+     */
+    static int slotFor(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != 0 && keys[index] != key)
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    /**
+     * Same as slotFor(int[], int), for long keys
+     */
+    static int slotFor(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != 0L && keys[index] != key)
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    /**
+     * Copies every key of oldKeys into the empty newKeys, and lets the caller move the matching values.
+     */
+    static void rehash(int[] oldKeys, int[] newKeys, SlotMover mover) {
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key == 0)
+                continue;
+
+            int index = slotFor(newKeys, key);
+            newKeys[index] = key;
+            mover.move(i, index);
+        }
+    }
+
+    /**
+     * Same as rehash(int[], int[], SlotMover), for long keys
+     */
+    static void rehash(long[] oldKeys, long[] newKeys, SlotMover mover) {
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == 0L)
+                continue;
+
+            int index = slotFor(newKeys, key);
+            newKeys[index] = key;
+            mover.move(i, index);
+        }
+    }
+}
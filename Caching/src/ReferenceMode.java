@@ -0,0 +1,40 @@
+/**
+ * How CacheManager references its keys and values, so the garbage collector can reclaim some entries.
+ */
+public enum ReferenceMode {
+    /**
+     * Entries stay until evicted or invalidated
+     */
+    STRONG(false, false),
+
+    /**
+     * An entry goes once its key is only referenced by the cache. Keys are then compared by identity, not equals.
+     */
+    WEAK_KEYS(true, false),
+
+    /**
+     * Values are released when the heap runs short, the least recently used first
+     */
+    SOFT_VALUES(false, true),
+
+    /**
+     * Both of the above
+     */
+    WEAK_KEYS_SOFT_VALUES(true, true);
+
+    private final boolean _weakKeys;
+    private final boolean _softValues;
+
+    ReferenceMode(boolean weakKeys, boolean softValues) {
+        _weakKeys = weakKeys;
+        _softValues = softValues;
+    }
+
+    boolean weakKeys() {
+        return _weakKeys;
+    }
+
+    boolean softValues() {
+        return _softValues;
+    }
+}
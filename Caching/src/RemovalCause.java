@@ -0,0 +1,29 @@
+/**
+ * Why an entry left a cache, so the statistics can tell a budget problem from normal churn.
+ */
+public enum RemovalCause {
+    /**
+     * Removed by a call to invalidate or invalidateAll
+     */
+    EXPLICIT,
+
+    /**
+     * Evicted to keep the cache within its budget
+     */
+    SIZE,
+
+    /**
+     * Overwritten by a new value for the same key
+     */
+    REPLACED,
+
+    /**
+     * Reclaimed by the garbage collector, see ReferenceMode
+     */
+    COLLECTED,
+
+    /**
+     * Reloaded after its time to live, see LoadFailurePolicy
+     */
+    EXPIRED
+}
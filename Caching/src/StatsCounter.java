@@ -0,0 +1,51 @@
+/**
+ * Records the activity of a cache. Implementations must be thread safe and cheap, they sit on the read path.
+ */
+public interface StatsCounter {
+    /**
+     * @return false if the recording is a no op, in which case the cache can skip measuring the load times
+     */
+    boolean isEnabled();
+
+    /**
+     * @param count number of lookups that found their key
+     */
+    void recordHits(int count);
+
+    /**
+     * @param count number of lookups that did not find their key
+     */
+    void recordMisses(int count);
+
+    /**
+     * Called before the data retrieval function runs
+     */
+    void recordLoadStart();
+
+    /**
+     * @param loadTimeNanos time spent in the data retrieval function
+     */
+    void recordLoadSuccess(long loadTimeNanos);
+
+    /**
+     * @param loadTimeNanos time spent in the data retrieval function before it threw
+     */
+    void recordLoadFailure(long loadTimeNanos);
+
+    /**
+     * @param cause why the entry left the cache
+     */
+    void recordEviction(RemovalCause cause);
+
+    /**
+     * @return an immutable copy of the counters at this point in time
+     */
+    CacheStats snapshot();
+
+    /**
+     * @return a counter recording nothing, whose calls the JIT compiles away
+     */
+    static StatsCounter disabled() {
+        return DisabledStatsCounter.INSTANCE;
+    }
+}
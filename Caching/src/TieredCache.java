@@ -0,0 +1,254 @@
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A two tiers cache: a bounded on-heap L1, spilling the entries it evicts to a persistent DiskStore L2.
+ * Technical: the L1 is a LinkedHashMap in access order, so its eldest entry is the least recently used one.
+ * A miss on L1 looks into L2 before calling the data retrieval function, and promotes what it finds back to L1.
+ * Since the L2 survives a restart (and close() spills the whole L1 into it), a redeployed node serves hits from
+ * its previous content instead of sending every key to the backend at once.
+ * An entry evicted from L1 stays visible in a spilling map until written to L2, outside of the L1 lock. An
+ * invalidate removes it from there too, so the spill sees it no longer pending and does not write it.
+ * Note 1: null keys and null values are only kept in L1, see DiskStore.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class TieredCache<K, V> implements Cache<K, V>, Closeable {
+
+    /**
+     * The L1, guarded by synchronising on itself
+     */
+    private final LinkedHashMap<K, V> _l1;
+
+    /**
+     * The entries evicted from L1 and not yet written to L2, guarded by synchronising on _l1.
+     * A spill only writes the entry still pending for its key: a put, an invalidate or a promotion replaced it.
+     */
+    private final HashMap<K, Map.Entry<K, V>> _spilling;
+
+    /**
+     * The L2
+     */
+    private final DiskStore<K, V> _l2;
+
+    /**
+     * Maximum number of entries in L1
+     */
+    private final int _maximumL1Entries;
+
+    /**
+     * New instance of this class, with an L2 of 64 segments of 64MB compacted every 10s
+     * @param maximumL1Entries maximum number of entries kept on heap
+     * @param directory where the L2 files live
+     * @param keyCodec serialises the keys for L2
+     * @param valueCodec serialises the values for L2
+     */
+    public TieredCache(int maximumL1Entries, Path directory, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(maximumL1Entries, new DiskStore<>(directory, keyCodec, valueCodec, 64 << 20, 64, 10000));
+    }
+
+    /**
+     * New instance of this class
+     * @param maximumL1Entries maximum number of entries kept on heap
+     * @param l2 the store receiving the entries evicted from L1. It is closed with this cache.
+     */
+    public TieredCache(int maximumL1Entries, DiskStore<K, V> l2) {
+        if (maximumL1Entries < 1)
+            throw new IllegalArgumentException("L1 must hold at least one entry");
+
+        _maximumL1Entries = maximumL1Entries;
+        _l1 = new LinkedHashMap<>(16, 0.75f, true);
+        _spilling = new HashMap<>();
+        _l2 = l2;
+    }
+
+    /**
+     *  Returns the cached value V linked to the provided key K.
+     *  If not in the cache, the provided function will be used to retrieve the value. It will then be cached and returned.
+     *  Note 1: an L2 hit deserialises the value from the mapped file and promotes it to L1.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value V from a key K
+     * @return The matching value for the given key
+     * @throws IllegalArgumentException When the passed dataRetrievalFunction encounters an exception
+     */
+    public V get(K key, Function<K, V> dataRetrievalFunction) {
+        synchronized (_l1) {
+            if (_l1.containsKey(key))
+                return _l1.get(key);
+        }
+
+        V value;
+        List<Map.Entry<K, V>> evicted;
+        // Same as CacheManager, we synchronise only on the key, so not to block the remaining of the cache
+        synchronized (key == null ? this : key) {
+            Map.Entry<K, V> spilling;
+            synchronized (_l1) {
+                if (_l1.containsKey(key))
+                    return _l1.get(key);
+                spilling = _spilling.get(key);
+            }
+
+            // Evicted but not written to L2 yet, promoted back from the spilling map
+            value = spilling != null ? spilling.getValue() : _l2.get(key);
+            if (value == null && spilling == null) {
+                try {
+                    value = dataRetrievalFunction.apply(key);
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("An exception occurred whilst using the passed data retrieval function", e);
+                }
+            }
+
+            evicted = putInL1(key, value);
+        }
+
+        spill(evicted);
+        return value;
+    }
+
+    /**
+     *  Caches the provided value for the key K in L1, replacing the value cached so far if any.
+     *  The stale copy L2 may hold is removed, it will be spilled again when evicted from L1.
+     * @param key The key of the value
+     * @param value The new value
+     */
+    public void put(K key, V value) {
+        List<Map.Entry<K, V>> evicted;
+        // Same as the loads, so a load running for that key cannot overwrite the new value
+        synchronized (key == null ? this : key) {
+            _l2.remove(key);
+            evicted = putInL1(key, value);
+        }
+
+        spill(evicted);
+    }
+
+    /**
+     *  Removes the value cached for the key K from both tiers, if any.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        synchronized (key == null ? this : key) {
+            synchronized (_l1) {
+                _l1.remove(key);
+                _spilling.remove(key);
+            }
+            _l2.remove(key);
+        }
+    }
+
+    /**
+     *  Removes every cached value from both tiers, deleting the L2 files.
+     */
+    public void invalidateAll() {
+        synchronized (_l1) {
+            _l1.clear();
+            _spilling.clear();
+        }
+        _l2.clear();
+    }
+
+    /**
+     * @return the number of entries on heap
+     */
+    public int l1Size() {
+        synchronized (_l1) {
+            return _l1.size();
+        }
+    }
+
+    /**
+     * @return the number of entries on disk
+     */
+    public int l2Size() {
+        return _l2.size();
+    }
+
+    /**
+     * Spills every L1 entry to L2, so they are available after a restart, then closes L2.
+     */
+    public void close() {
+        List<Map.Entry<K, V>> entries = new ArrayList<>();
+        synchronized (_l1) {
+            for (Map.Entry<K, V> entry : _l1.entrySet())
+                entries.add(pendingSpill(entry));
+            _l1.clear();
+        }
+
+        spill(entries);
+        _l2.close();
+    }
+
+    /**
+     * Adds an entry to L1, and moves the least recently used entries above the maximum to the spilling map.
+     * Must be called under the key lock.
+     * @return the entries to spill, once the caller released its key lock
+     */
+    private List<Map.Entry<K, V>> putInL1(K key, V value) {
+        List<Map.Entry<K, V>> evicted = Collections.emptyList();
+        synchronized (_l1) {
+            _l1.put(key, value);
+            _spilling.remove(key);
+
+            Iterator<Map.Entry<K, V>> eldest = _l1.entrySet().iterator();
+            while (_l1.size() > _maximumL1Entries) {
+                Map.Entry<K, V> entry = eldest.next();
+                if (evicted.isEmpty())
+                    evicted = new ArrayList<>();
+                evicted.add(pendingSpill(entry));
+                eldest.remove();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Copies an L1 entry into the spilling map. Must be called under the L1 lock.
+     * @return the copy, identifying this spill of the key
+     */
+    private Map.Entry<K, V> pendingSpill(Map.Entry<K, V> entry) {
+        Map.Entry<K, V> pending = new AbstractMap.SimpleImmutableEntry<>(entry);
+        _spilling.put(pending.getKey(), pending);
+        return pending;
+    }
+
+    /**
+     * Writes entries to L2, one key lock at a time so two spilling threads cannot deadlock.
+     * Skips the entries no longer pending: a put, an invalidate or a promotion took the key lock since the eviction.
+     * Skips as well those L2 already holds: they were promoted from L2 unchanged, as put and invalidate remove the key
+     * from L2.
+     * invalidateAll does not take the key locks, so the entry is checked again once written, and removed from L2 if
+     * the spilling map was cleared in between.
+     */
+    private void spill(List<Map.Entry<K, V>> entries) {
+        for (Map.Entry<K, V> entry : entries) {
+            K key = entry.getKey();
+            synchronized (key == null ? this : key) {
+                synchronized (_l1) {
+                    if (_spilling.get(key) != entry)
+                        continue;
+                }
+
+                if (!_l2.contains(key))
+                    _l2.put(key, entry.getValue());
+
+                boolean cleared;
+                synchronized (_l1) {
+                    cleared = _spilling.get(key) != entry;
+                    if (!cleared)
+                        _spilling.remove(key);
+                }
+                if (cleared)
+                    _l2.remove(key);
+            }
+        }
+    }
+}
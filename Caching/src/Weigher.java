@@ -0,0 +1,15 @@
+/**
+ * Computes the weight of a cache entry, usually its approximate size in bytes, so a cache can be given a memory budget.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+    /**
+     * Called once, when the entry is added to the cache.
+     * @param key the key of the entry, possibly null
+     * @param value the value of the entry, possibly null
+     * @return the weight of the entry, not negative
+     */
+    int weigh(K key, V value);
+}
@@ -0,0 +1,263 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Decorates a Cache so that puts are written to the backend asynchronously, in batches.
+ * Technical: a put updates the cache straight away, and records the key as dirty in a ConcurrentHashMap.
+ * Repeated puts on the same key only replace its dirty value, so a hot key costs one backend write per batch
+ * whatever its update rate. A batch is written when the number of dirty keys reaches the maximum batch size,
+ * or when the flush interval elapses, whichever comes first.
+ * Note 1: invalidate only affects the cache, a dirty value is still written to the backend. Until it is, a get
+ * missing the cache, after an invalidation or an eviction, returns it rather than loading a stale value.
+ * Note 2: a failed background flush leaves its entries pending for the next one, and is reported to the failure
+ * listener and counted, see failedFlushes.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class WriteBehindCache<K, V> implements Cache<K, V>, Closeable {
+
+    /**
+     * Stands for the null key in the map, which does not accept nulls
+     */
+    private static final Object _nullKey = new Object();
+
+    private final Cache<K, V> _cache;
+
+    private final BatchWriter<K, V> _batchWriter;
+
+    /**
+     * Number of dirty keys triggering a flush
+     */
+    private final int _maximumBatchSize;
+
+    /**
+     * The latest value of each key updated since the last batch
+     */
+    private final ConcurrentHashMap<Object, DirtyEntry<K, V>> _dirtyEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Only one batch is written at a time, so the backend sees the updates of a key in order
+     */
+    private final ReentrantLock _flushLock = new ReentrantLock();
+
+    /**
+     * Runs the timed flushes, and the flushes triggered by the batch size
+     */
+    private final ScheduledExecutorService _executorService;
+
+    /**
+     * Whether a flush triggered by the batch size is queued, so the puts reaching the size do not queue one each
+     */
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+
+    /**
+     * Called with the exception of each failed background flush
+     */
+    private final Consumer<Exception> _failureListener;
+
+    /**
+     * Number of failed background flushes
+     */
+    private final AtomicLong _failedFlushes = new AtomicLong();
+
+    /**
+     * New instance of this class, only counting the failed background flushes
+     * @param cache the cache to decorate. It is closed with this cache, if closeable.
+     * @param batchWriter writes the batches to the backend
+     * @param maximumBatchSize number of dirty keys triggering a flush
+     * @param flushIntervalMs maximum time a put waits before being written
+     */
+    public WriteBehindCache(Cache<K, V> cache, BatchWriter<K, V> batchWriter, int maximumBatchSize, long flushIntervalMs) {
+        this(cache, batchWriter, maximumBatchSize, flushIntervalMs, e -> { });
+    }
+
+    /**
+     * New instance of this class
+     * @param cache the cache to decorate. It is closed with this cache, if closeable.
+     * @param batchWriter writes the batches to the backend
+     * @param maximumBatchSize number of dirty keys triggering a flush
+     * @param flushIntervalMs maximum time a put waits before being written
+     * @param failureListener called on the flush thread with the exception of each failed background flush
+     */
+    public WriteBehindCache(Cache<K, V> cache, BatchWriter<K, V> batchWriter, int maximumBatchSize, long flushIntervalMs,
+                            Consumer<Exception> failureListener) {
+        if (maximumBatchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1");
+        if (flushIntervalMs < 1)
+            throw new IllegalArgumentException("The flush interval must be at least 1ms");
+
+        _cache = cache;
+        _batchWriter = batchWriter;
+        _maximumBatchSize = maximumBatchSize;
+        _failureListener = failureListener;
+        _executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _executorService.scheduleWithFixedDelay(this::flushInBackground, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *  Returns the cached value V linked to the provided key K, see the decorated cache.
+     *  A key missing the cache but waiting to be written gets its pending value, the backend not having it yet.
+     * @param key The key to retrieve the value
+     * @param dataRetrievalFunction A function to generate the value V from a key K
+     * @return The matching value for the given key
+     */
+    public V get(K key, Function<K, V> dataRetrievalFunction) {
+        return _cache.get(key, k -> {
+            DirtyEntry<K, V> dirty = _dirtyEntries.get(k == null ? _nullKey : k);
+            return dirty != null ? dirty._value : dataRetrievalFunction.apply(k);
+        });
+    }
+
+    /**
+     *  Caches the provided value for the key K, and schedules its write to the backend.
+     *  Note 1: returns without waiting for the backend, see flush.
+     * @param key The key of the value
+     * @param value The new value
+     */
+    public void put(K key, V value) {
+        // Pending before being cached, so a get missing the cache always finds it, and atomic per key so the cache and
+        // the pending value of concurrent puts cannot end up from different ones
+        synchronized (key == null ? this : key) {
+            _dirtyEntries.put(key == null ? _nullKey : key, new DirtyEntry<>(key, value));
+            _cache.put(key, value);
+        }
+
+        if (_dirtyEntries.size() >= _maximumBatchSize && _flushScheduled.compareAndSet(false, true))
+            _executorService.execute(() -> {
+                // Cleared first, so the puts landing during this flush can queue the next one
+                _flushScheduled.set(false);
+                flushInBackground();
+            });
+    }
+
+    /**
+     *  Removes the value cached for the key K, if any. A pending write of the key is still flushed.
+     * @param key The key of the value to remove
+     */
+    public void invalidate(K key) {
+        _cache.invalidate(key);
+    }
+
+    /**
+     *  Removes every cached value. The pending writes are still flushed.
+     */
+    public void invalidateAll() {
+        _cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of keys waiting to be written
+     */
+    public int pendingWrites() {
+        return _dirtyEntries.size();
+    }
+
+    /**
+     * @return the number of background flushes which failed, their entries being left pending
+     */
+    public long failedFlushes() {
+        return _failedFlushes.get();
+    }
+
+    /**
+     * Writes the updates pending when called to the backend, and returns once they are written.
+     * This is the barrier to call before shutting down.
+     * Note 1: the puts landing meanwhile are left to the next flush, so a steady stream of puts cannot keep it running.
+     * @throws IllegalStateException if the batch writer failed. The entries stay pending and will be retried.
+     */
+    public void flush() {
+        _flushLock.lock();
+        try {
+            List<Map.Entry<Object, DirtyEntry<K, V>>> pending = new ArrayList<>(_dirtyEntries.entrySet());
+            for (int start = 0; start < pending.size(); start += _maximumBatchSize) {
+                Map<K, V> batch = new HashMap<>();
+                Map<Object, DirtyEntry<K, V>> taken = new HashMap<>();
+                for (Map.Entry<Object, DirtyEntry<K, V>> dirty : pending.subList(start, Math.min(start + _maximumBatchSize, pending.size()))) {
+                    // A newer put replaced the entry since we read it, it is left to the next flush
+                    if (_dirtyEntries.get(dirty.getKey()) == dirty.getValue()) {
+                        batch.put(dirty.getValue()._key, dirty.getValue()._value);
+                        taken.put(dirty.getKey(), dirty.getValue());
+                    }
+                }
+                if (batch.isEmpty())
+                    continue;
+
+                try {
+                    _batchWriter.write(batch);
+                } catch (Exception e) {
+                    throw new IllegalStateException("The batch writer failed, " + batch.size() + " entries are still pending", e);
+                }
+
+                // Only removed once written, so a get meanwhile finds them pending rather than loading them from the
+                // backend, unless a newer put came in
+                taken.forEach(_dirtyEntries::remove);
+            }
+        } finally {
+            _flushLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the pending writes, stops the background flushes and closes the decorated cache.
+     * @throws IllegalStateException if the last flush failed, in which case its entries are lost
+     */
+    public void close() throws IOException {
+        _executorService.shutdown();
+        try {
+            if (!_executorService.awaitTermination(10, TimeUnit.SECONDS))
+                _executorService.shutdownNow();
+        } catch (InterruptedException e) {
+            _executorService.shutdownNow();
+        }
+
+        try {
+            flush();
+        } finally {
+            if (_cache instanceof Closeable)
+                ((Closeable) _cache).close();
+        }
+    }
+
+    /**
+     * Background flush: a failure is counted and passed to the failure listener, the entries stay pending for the
+     * next attempt
+     */
+    private void flushInBackground() {
+        try {
+            flush();
+        } catch (IllegalStateException e) {
+            _failedFlushes.incrementAndGet();
+            _failureListener.accept(e);
+        }
+    }
+
+    /**
+     * A value waiting to be written. A new instance per put, so a flush can tell it was replaced.
+     */
+    private static final class DirtyEntry<K, V> {
+        private final K _key;
+        private final V _value;
+
+        DirtyEntry(K key, V value) {
+            _key = key;
+            _value = value;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import benchmark.BenchmarkedCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * Bridges the benchmark package to the caches of the default package, see BenchmarkedCache.
+ */
+public class BenchmarkedCaches implements BenchmarkedCache.Factory {
+
+    public BenchmarkedCache create(String cacheType, int capacity, Path scratchDirectory) {
+        Cache<Long, byte[]> cache = CacheType.valueOf(cacheType).create(capacity, scratchDirectory);
+        return new BenchmarkedCache() {
+            public byte[] get(Long key, Function<Long, byte[]> dataRetrievalFunction) {
+                return cache.get(key, dataRetrievalFunction);
+            }
+
+            public void put(Long key, byte[] value) {
+                cache.put(key, value);
+            }
+
+            public void close() throws IOException {
+                if (cache instanceof Closeable)
+                    ((Closeable) cache).close();
+            }
+        };
+    }
+}
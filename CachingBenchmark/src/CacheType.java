@@ -0,0 +1,59 @@
+import java.nio.file.Path;
+
+/**
+ * The Cache implementations under benchmark, each built to hold about the same number of entries.
+ * Keys are longs and values byte arrays, which every implementation can store.
+ */
+public enum CacheType {
+    CACHE_MANAGER {
+        Cache<Long, byte[]> create(int capacity, Path scratchDirectory) {
+            return new CacheManager<>(capacity, (key, value) -> 1);
+        }
+    },
+
+    /**
+     * A CACHE_MANAGER behind a per thread L0 of 64 entries
+     */
+    NEAR_CACHE {
+        Cache<Long, byte[]> create(int capacity, Path scratchDirectory) {
+            return new NearCache<>(CACHE_MANAGER.create(capacity, scratchDirectory), 64);
+        }
+    },
+
+    /**
+     * Entries of 8 + 8 + 64 bytes land in 128 bytes slots
+     */
+    OFF_HEAP {
+        Cache<Long, byte[]> create(int capacity, Path scratchDirectory) {
+            int segmentSize = 1 << 20;
+            int segments = Math.max(1, (int) ((long) capacity * 128 / segmentSize));
+            return new OffHeapCache<>(Codec.longs(), Codec.bytes(), segmentSize, segments);
+        }
+    },
+
+    /**
+     * Half of the capacity on heap, the remaining spilled to the scratch directory
+     */
+    TIERED {
+        Cache<Long, byte[]> create(int capacity, Path scratchDirectory) {
+            DiskStore<Long, byte[]> l2 = new DiskStore<>(scratchDirectory, Codec.longs(), Codec.bytes(), 16 << 20, 64, 10000);
+            return new TieredCache<>(Math.max(1, capacity / 2), l2);
+        }
+    },
+
+    /**
+     * A CACHE_MANAGER whose writes are batched by 1000 every 100ms to a writer discarding them
+     */
+    WRITE_BEHIND {
+        Cache<Long, byte[]> create(int capacity, Path scratchDirectory) {
+            return new WriteBehindCache<>(CACHE_MANAGER.create(capacity, scratchDirectory), entries -> { }, 1000, 100);
+        }
+    };
+
+    /**
+     * @param capacity the approximate number of entries the cache should hold
+     * @param scratchDirectory an empty directory the cache may write files to
+     * @return a new, empty cache
+     */
+    abstract Cache<Long, byte[]> create(int capacity, Path scratchDirectory);
+}
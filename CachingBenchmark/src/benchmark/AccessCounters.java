@@ -0,0 +1,73 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Per thread state of the benchmarks: the position in the key stream, and the hit and miss counters JMH reports
+ * next to the throughput (hit ratio = hits / (hits + misses)).
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class AccessCounters {
+
+    /**
+     * The value every load returns, shared so the loads do not allocate
+     */
+    private static final byte[] _value = new byte[64];
+
+    public long hits;
+    public long misses;
+    public long writes;
+
+    /**
+     * The data retrieval function, allocated once per thread so the measured path does not allocate a lambda
+     */
+    final Function<Long, byte[]> _loader = key -> {
+        misses++;
+        return _value;
+    };
+
+    /**
+     * Position in the key stream, each thread starting at a different place
+     */
+    int _position;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        _position = ThreadLocalRandom.current().nextInt();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        hits = 0;
+        misses = 0;
+        writes = 0;
+    }
+
+    /**
+     * Reads a key through the cache and counts whether it was a hit
+     */
+    byte[] read(BenchmarkedCache cache, long key) {
+        long missesBefore = misses;
+        byte[] value = cache.get(key, _loader);
+        if (misses == missesBefore)
+            hits++;
+        return value;
+    }
+
+    /**
+     * Writes a key through the cache and counts it
+     */
+    byte[] write(BenchmarkedCache cache, long key) {
+        cache.put(key, _value);
+        writes++;
+        return _value;
+    }
+}
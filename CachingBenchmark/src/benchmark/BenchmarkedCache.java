@@ -0,0 +1,46 @@
+package benchmark;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * A cache under benchmark, seen from the benchmark package.
+ * JMH refuses benchmarks in the default package, and a named package cannot reference the default package where the
+ * caches live, hence this interface implemented by the BenchmarkedCaches bridge.
+ */
+public interface BenchmarkedCache extends Closeable {
+    /**
+     * Same contract as Cache.get
+     */
+    byte[] get(Long key, Function<Long, byte[]> dataRetrievalFunction);
+
+    /**
+     * Same contract as Cache.put
+     */
+    void put(Long key, byte[] value);
+
+    /**
+     * Builds the caches under benchmark, see the BenchmarkedCaches class of the default package
+     */
+    interface Factory {
+        /**
+         * @param cacheType the name of the implementation, one of the values of the default package CacheType
+         * @param capacity the approximate number of entries the cache should hold
+         * @param scratchDirectory an empty directory the cache may write files to
+         * @return a new, empty cache
+         */
+        BenchmarkedCache create(String cacheType, int capacity, Path scratchDirectory);
+
+        /**
+         * Loads the bridge by name, as the default package cannot be imported
+         */
+        static Factory load() {
+            try {
+                return (Factory) Class.forName("BenchmarkedCaches").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("The BenchmarkedCaches bridge is missing from the classpath", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs every Cache implementation through the synthetic workloads, see CacheBenchmarkRunner for the thread counts
+ * and the profilers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    /**
+     * Length of the pre-generated key stream, a power of 2
+     */
+    private static final int _streamLength = 1 << 20;
+
+    /**
+     * One of the values of the CacheType enum of the default package
+     */
+    @Param({"CACHE_MANAGER", "NEAR_CACHE", "OFF_HEAP", "TIERED", "WRITE_BEHIND"})
+    public String cacheType;
+
+    @Param({"ZIPFIAN", "UNIFORM", "SCAN_POLLUTED"})
+    public Workload workload;
+
+    /**
+     * Percentage of the operations that are reads, the remaining being writes
+     */
+    @Param({"100", "95", "50"})
+    public int readPercentage;
+
+    /**
+     * Number of distinct keys of the workload
+     */
+    @Param("1000000")
+    public int keySpace;
+
+    /**
+     * Number of entries the cache can hold
+     */
+    @Param("100000")
+    public int capacity;
+
+    private long[] _keys;
+    private boolean[] _writes;
+    private BenchmarkedCache _cache;
+    private Path _scratchDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _keys = workload.keys(_streamLength, keySpace, 42);
+        _writes = new boolean[_streamLength];
+        Random random = new Random(43);
+        for (int i = 0; i < _streamLength; i++)
+            _writes[i] = random.nextInt(100) >= readPercentage;
+
+        _scratchDirectory = Files.createTempDirectory("cache-benchmark");
+        _cache = BenchmarkedCache.Factory.load().create(cacheType, capacity, _scratchDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        _cache.close();
+
+        try (Stream<Path> files = Files.walk(_scratchDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public byte[] access(AccessCounters counters) {
+        int index = counters._position++ & (_streamLength - 1);
+        long key = _keys[index];
+        if (!_writes[index])
+            return counters.read(_cache, key);
+
+        return counters.write(_cache, key);
+    }
+}
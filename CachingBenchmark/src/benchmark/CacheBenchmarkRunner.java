@@ -0,0 +1,52 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the cache benchmarks at 1, 2, 4... up to N threads.
+ * Every run reports the throughput (ops/s) and, in a second pass, the latency percentiles (sample time mode).
+ * The GC profiler adds the allocation per operation (gc.alloc.rate.norm), the AccessCounters the hits and misses.
+ * Usage: CacheBenchmarkRunner [maximum threads, default the number of cores] [trace file to replay]
+ * The JSON results are written to cache-benchmark-&lt;threads&gt;t-&lt;mode&gt;.json in the working directory.
+ */
+public class CacheBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        int maximumThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String tracePath = args.length > 1 ? args[1] : null;
+
+        for (int threads = 1; ; threads = Math.min(threads << 1, maximumThreads)) {
+            run(threads, tracePath, false);
+            run(threads, tracePath, true);
+            if (threads >= maximumThreads)
+                break;
+        }
+    }
+
+    private static void run(int threads, String tracePath, boolean latency) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(CacheBenchmark.class.getSimpleName())
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(String.format("cache-benchmark-%dt-%s.json", threads, latency ? "latency" : "throughput"));
+
+        if (tracePath != null)
+            options.include(TraceReplayBenchmark.class.getSimpleName()).param("tracePath", tracePath);
+
+        if (latency)
+            options.mode(Mode.SampleTime).timeUnit(TimeUnit.NANOSECONDS);
+        else
+            options.mode(Mode.Throughput).timeUnit(TimeUnit.SECONDS);
+
+        new Runner(options.build()).run();
+    }
+}
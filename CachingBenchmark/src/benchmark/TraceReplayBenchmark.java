@@ -0,0 +1,119 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replays a recorded key access trace through every Cache implementation.
+ * The trace is a text file with one access per line. The first token of the line is the key: a number is used as is,
+ * anything else is hashed, so most trace formats (ARC, LIRS, plain logs) can be replayed after a cut.
+ * Each thread replays the whole trace from a different starting point.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraceReplayBenchmark {
+
+    /**
+     * One of the values of the CacheType enum of the default package
+     */
+    @Param({"CACHE_MANAGER", "NEAR_CACHE", "OFF_HEAP", "TIERED", "WRITE_BEHIND"})
+    public String cacheType;
+
+    /**
+     * The trace to replay, to give with -p tracePath=...
+     */
+    @Param("")
+    public String tracePath;
+
+    /**
+     * Number of entries the cache can hold
+     */
+    @Param("100000")
+    public int capacity;
+
+    private long[] _keys;
+    private BenchmarkedCache _cache;
+    private Path _scratchDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (tracePath.isEmpty())
+            throw new IllegalArgumentException("No trace to replay, run with -p tracePath=<file>");
+
+        _keys = readTrace(Paths.get(tracePath));
+        _scratchDirectory = Files.createTempDirectory("trace-benchmark");
+        _cache = BenchmarkedCache.Factory.load().create(cacheType, capacity, _scratchDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        _cache.close();
+
+        try (Stream<Path> files = Files.walk(_scratchDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public byte[] replay(AccessCounters counters) {
+        int index = Math.floorMod(counters._position++, _keys.length);
+        return counters.read(_cache, _keys[index]);
+    }
+
+    /**
+     * @return the keys of the trace, in order
+     */
+    private static long[] readTrace(Path trace) throws IOException {
+        long[] keys = new long[1 << 16];
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(trace)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                String token = line.split("[\\s,]+", 2)[0];
+                long key;
+                try {
+                    key = Long.parseLong(token);
+                } catch (NumberFormatException e) {
+                    key = token.hashCode() & Integer.MAX_VALUE;
+                }
+
+                if (count == keys.length)
+                    keys = Arrays.copyOf(keys, count << 1);
+                keys[count++] = key;
+            }
+        }
+
+        if (count == 0)
+            throw new IllegalArgumentException("The trace " + trace + " holds no access");
+        return Arrays.copyOf(keys, count);
+    }
+}
@@ -0,0 +1,60 @@
+package benchmark;
+
+import java.util.Random;
+
+/**
+ * The key access patterns the caches are benchmarked against.
+ * Each workload is turned into a fixed stream of keys before the measurement, so generating keys is not measured.
+ */
+public enum Workload {
+    /**
+     * Zipfian popularity (theta 0.99): a small set of hot keys gets most of the reads
+     */
+    ZIPFIAN {
+        long[] keys(int length, long keySpace, long seed) {
+            ZipfianGenerator zipfian = new ZipfianGenerator(keySpace, 0.99, seed);
+            long[] keys = new long[length];
+            for (int i = 0; i < length; i++)
+                keys[i] = zipfian.next();
+            return keys;
+        }
+    },
+
+    /**
+     * Every key equally likely, the worst case for any eviction policy
+     */
+    UNIFORM {
+        long[] keys(int length, long keySpace, long seed) {
+            Random random = new Random(seed);
+            long[] keys = new long[length];
+            for (int i = 0; i < length; i++)
+                keys[i] = Math.floorMod(random.nextLong(), keySpace);
+            return keys;
+        }
+    },
+
+    /**
+     * Zipfian reads interrupted by long scans of keys read only once (a batch job, a full export...).
+     * A plain LRU lets the scans flush the hot keys.
+     */
+    SCAN_POLLUTED {
+        long[] keys(int length, long keySpace, long seed) {
+            ZipfianGenerator zipfian = new ZipfianGenerator(keySpace, 0.99, seed);
+            long[] keys = new long[length];
+            long nextScanKey = keySpace;
+            for (int i = 0; i < length; i++) {
+                // 1000 Zipfian reads, then a scan of 1000 keys outside of the Zipfian key space
+                keys[i] = (i / 1000) % 2 == 0 ? zipfian.next() : nextScanKey++;
+            }
+            return keys;
+        }
+    };
+
+    /**
+     * @param length the number of keys to generate
+     * @param keySpace the number of distinct keys of the Zipfian or uniform part
+     * @param seed so the workloads are reproducible
+     * @return the stream of keys, all positive
+     */
+    abstract long[] keys(int length, long keySpace, long seed);
+}
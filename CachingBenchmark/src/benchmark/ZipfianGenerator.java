@@ -0,0 +1,79 @@
+package benchmark;
+
+import java.util.Random;
+
+/**
+ * Draws integers in [0, items) following a Zipfian distribution, the usual model of cache key popularity.
+ * Technical: the rejection-free algorithm of Gray et al. "Quickly Generating Billion-Record Synthetic Databases",
+ * as used by YCSB. The ranks are then scrambled with a hash, so the hot keys are spread over the key space instead
+ * of all being the smallest ones.
+ */
+public class ZipfianGenerator {
+
+    private final long _items;
+    private final double _theta;
+    private final double _alpha;
+    private final double _zetaN;
+    private final double _eta;
+    private final Random _random;
+
+    /**
+     * New instance of this class
+     * @param items the number of distinct values
+     * @param theta the skew, 0.99 in YCSB. The higher, the more the first ranks dominate.
+     * @param seed so the workloads are reproducible
+     */
+    public ZipfianGenerator(long items, double theta, long seed) {
+        if (items < 2)
+            throw new IllegalArgumentException("At least two items are needed");
+
+        _items = items;
+        _theta = theta;
+        _random = new Random(seed);
+
+        double zeta2 = zeta(2, theta);
+        _zetaN = zeta(items, theta);
+        _alpha = 1.0 / (1.0 - theta);
+        _eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / _zetaN);
+    }
+
+    /**
+     * @return the next value, scrambled so that popularity does not follow the key order
+     */
+    public long next() {
+        return Math.floorMod(scramble(nextRank()), _items);
+    }
+
+    /**
+     * @return the next rank, 0 being the most popular
+     */
+    public long nextRank() {
+        double u = _random.nextDouble();
+        double uz = u * _zetaN;
+
+        if (uz < 1.0)
+            return 0;
+        if (uz < 1.0 + Math.pow(0.5, _theta))
+            return 1;
+
+        return Math.min(_items - 1, (long) (_items * Math.pow(_eta * u - _eta + 1, _alpha)));
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++)
+            sum += 1 / Math.pow(i, theta);
+        return sum;
+    }
+
+    /**
+     * 64 bits finaliser of MurmurHash3
+     */
+    private static long scramble(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -1,5 +1,9 @@
 import org.junit.Test;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.IntStream;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -161,6 +165,363 @@ public class CacheManagerTest {
         });
     }
 
+    @Test
+    public void testWeightEviction()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(100, (key, value) -> value.length());
+
+        // Act
+        for (int i = 0; i < 20; i++)
+            cacheManager.get(i, x -> "0123456789");
+
+        // Assert
+        assertEquals(10, cacheManager.size());
+        assertEquals(100, cacheManager.weightedSize());
+        assertEquals("reloaded", cacheManager.get(0, x -> "reloaded"));
+    }
+
+    @Test
+    public void testWeightEvictsLeastRecentlyUsed()
+    {
+        // Arrange
+        CacheManager<Integer, Integer> cacheManager = new CacheManager<>(3, (key, value) -> 1);
+        cacheManager.get(1, x -> x);
+        cacheManager.get(2, x -> x);
+        cacheManager.get(3, x -> x);
+
+        // Act
+        cacheManager.get(1, x -> -1);
+        cacheManager.get(4, x -> x);
+
+        // Assert
+        assertEquals(1, (int) cacheManager.get(1, x -> -1));
+        assertEquals(-1, (int) cacheManager.get(2, x -> -1));
+    }
+
+    @Test
+    public void testOversizedValueIsRefused()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(10, (key, value) -> value.length());
+        cacheManager.get(1, x -> "small");
+
+        // Act
+        var result = cacheManager.get(2, x -> "far too large for the budget");
+
+        // Assert
+        assertEquals("far too large for the budget", result);
+        assertEquals(1, cacheManager.size());
+        assertEquals(5, cacheManager.weightedSize());
+    }
+
+    @Test
+    public void testStatistics()
+    {
+        // Arrange
+        CacheManager<Integer, Integer> cacheManager = new CacheManager<>(2, (key, value) -> 1, new ConcurrentStatsCounter());
+
+        // Act
+        cacheManager.get(1, x -> getData(x));
+        cacheManager.get(1, x -> getData(x));
+        cacheManager.get(2, x -> getData(x));
+        cacheManager.get(3, x -> getData(x));
+        try {
+            cacheManager.get(4, x -> getData((Integer) null));
+        } catch (IllegalArgumentException e) {
+            // expected, counted as a load failure
+        }
+        CacheStats stats = cacheManager.stats();
+
+        // Assert
+        assertEquals(1, stats.hitCount());
+        assertEquals(4, stats.missCount());
+        assertEquals(3, stats.loadSuccessCount());
+        assertEquals(1, stats.loadFailureCount());
+        assertEquals(0, stats.inFlightLoads());
+        assertEquals(1, stats.evictionCount(RemovalCause.SIZE));
+        assertEquals(0.2, stats.hitRate(), 0.0001);
+        assertEquals(true, stats.loadLatencyPercentileNanos(99) > 0);
+    }
+
+    @Test
+    public void testStatisticsDisabledByDefault()
+    {
+        // Arrange
+        CacheManager<Integer, Integer> cacheManager = new CacheManager<>();
+
+        // Act
+        cacheManager.get(1, x -> getData(x));
+        cacheManager.get(1, x -> getData(x));
+
+        // Assert
+        assertEquals(0, cacheManager.stats().requestCount());
+    }
+
+    @Test
+    public void testStatisticsJmx() throws Exception
+    {
+        // Arrange
+        StatsCounter statsCounter = new ConcurrentStatsCounter();
+        CacheManager<Integer, Integer> cacheManager = new CacheManager<>(statsCounter);
+        var objectName = CacheStatsJmx.register("testStatisticsJmx", statsCounter);
+
+        try {
+            // Act
+            cacheManager.get(1, x -> getData(x));
+            cacheManager.get(1, x -> getData(x));
+
+            // Assert
+            var server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(objectName, "HitCount"));
+            assertEquals(1L, server.getAttribute(objectName, "MissCount"));
+        } finally {
+            CacheStatsJmx.unregister(objectName);
+        }
+    }
+
+    @Test
+    public void testPutReplacesValue()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(100, (key, value) -> value.length(), new ConcurrentStatsCounter());
+        cacheManager.get(1, x -> "loaded");
+
+        // Act
+        cacheManager.put(1, "put");
+        cacheManager.put(null, "null key");
+
+        // Assert
+        assertEquals("put", cacheManager.get(1, x -> "reloaded"));
+        assertEquals("null key", cacheManager.get(null, x -> "reloaded"));
+        assertEquals(11, cacheManager.weightedSize());
+        assertEquals(1, cacheManager.stats().evictionCount(RemovalCause.REPLACED));
+    }
+
+    @Test
+    public void testInvalidate()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(100, (key, value) -> value.length(), new ConcurrentStatsCounter());
+        cacheManager.get(1, x -> "one");
+        cacheManager.get(2, x -> "two");
+        cacheManager.get(3, x -> "three");
+
+        // Act
+        cacheManager.invalidate(1);
+
+        // Assert
+        assertEquals(2, cacheManager.size());
+        assertEquals(8, cacheManager.weightedSize());
+        assertEquals("reloaded", cacheManager.get(1, x -> "reloaded"));
+
+        // Act
+        cacheManager.invalidateAll();
+
+        // Assert
+        assertEquals(0, cacheManager.size());
+        assertEquals(0, cacheManager.weightedSize());
+        assertEquals(4, cacheManager.stats().evictionCount(RemovalCause.EXPLICIT));
+    }
+
+    /**
+     * An invalidate arriving while a load runs waits for it, so the next get does not see the value loaded before
+     */
+    @Test(timeout = 10000)
+    public void testInvalidateDuringLoad() throws InterruptedException
+    {
+        // Arrange
+        CacheManager<String, String> cache = new CacheManager<>();
+        String key = "key";
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread loader = new Thread(() -> cache.get(key, x -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "before";
+        }));
+        loader.start();
+        loading.await();
+
+        // Act
+        Thread invalidator = new Thread(() -> cache.invalidate(key));
+        invalidator.start();
+        invalidator.join(100);
+        release.countDown();
+        loader.join();
+        invalidator.join();
+
+        // Assert
+        assertEquals("after", cache.get(key, x -> "after"));
+    }
+
+    /**
+     * Weak keys are compared by identity, and their entry goes once the key is unreachable
+     */
+    @Test(timeout = 10000)
+    public void testWeakKeys() throws InterruptedException
+    {
+        // Arrange
+        CacheManager<Object, String> cacheManager = new CacheManager<>(ReferenceMode.WEAK_KEYS, new ConcurrentStatsCounter());
+        Object kept = new Object();
+        cacheManager.get(kept, x -> "kept");
+        cacheManager.get(null, x -> "null key");
+        for (int i = 0; i < 100; i++)
+            cacheManager.get(new Object(), x -> "dropped");
+        String key = new String("key");
+        cacheManager.get(key, x -> "first");
+
+        // Act
+        while (cacheManager.size() > 3) {
+            System.gc();
+            Thread.sleep(10);
+            cacheManager.cleanUp();
+        }
+
+        // Assert
+        assertEquals(100, cacheManager.stats().evictionCount(RemovalCause.COLLECTED));
+        assertEquals("kept", cacheManager.get(kept, x -> "reloaded"));
+        assertEquals("null key", cacheManager.get(null, x -> "reloaded"));
+        assertEquals("first", cacheManager.get(key, x -> "reloaded"));
+        assertEquals("other", cacheManager.get(new String("key"), x -> "other"));
+    }
+
+    @Test
+    public void testSoftValues()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(2, (key, value) -> 1, StatsCounter.disabled(), ReferenceMode.WEAK_KEYS_SOFT_VALUES);
+
+        // Act
+        cacheManager.get(1, x -> "one");
+        cacheManager.get(2, x -> null);
+        cacheManager.put(1, "put");
+        cacheManager.get(3, x -> "three");
+
+        // Assert
+        assertEquals(2, cacheManager.size());
+        assertEquals("put", cacheManager.get(1, x -> "reloaded"));
+        assertEquals("reloaded", cacheManager.get(2, x -> "reloaded"));
+        assertEquals(2, cacheManager.weightedSize());
+    }
+
+    /**
+     * During the backoff, the callers get the cached failure without calling the function
+     */
+    @Test
+    public void testFailuresAreCached() throws InterruptedException
+    {
+        // Arrange
+        AtomicInteger loads = new AtomicInteger();
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(new LoadFailurePolicy(100, 1000));
+        Function<Integer, String> failing = x -> { loads.incrementAndGet(); throw new IllegalStateException("database down"); };
+
+        // Act
+        int failures = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                cacheManager.get(1, failing);
+            } catch (IllegalArgumentException e) {
+                assertEquals("database down", e.getCause().getMessage());
+                failures++;
+            }
+        }
+
+        // Assert
+        assertEquals(10, failures);
+        assertEquals(1, loads.get());
+
+        // Act
+        Thread.sleep(150);
+
+        // Assert
+        assertEquals("recovered", cacheManager.get(1, x -> { loads.incrementAndGet(); return "recovered"; }));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testBackoffDoubles()
+    {
+        // Arrange
+        LoadFailurePolicy policy = new LoadFailurePolicy(100, 1000);
+
+        // Act
+        long first = policy.backoffNanos(1);
+        long second = policy.backoffNanos(2);
+        long capped = policy.backoffNanos(10);
+        long overflow = policy.backoffNanos(100);
+
+        // Assert
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), first);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), second);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), capped);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), overflow);
+    }
+
+    @Test
+    public void testPutClearsTheFailure()
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(new LoadFailurePolicy(60000, 60000));
+        try {
+            cacheManager.get(1, x -> { throw new IllegalStateException("database down"); });
+        } catch (IllegalArgumentException e) {
+            // expected, cached for a minute
+        }
+
+        // Act
+        cacheManager.put(1, "put");
+
+        // Assert
+        assertEquals("put", cacheManager.get(1, x -> "reloaded"));
+    }
+
+    @Test
+    public void testNegativeCachingExpires() throws InterruptedException
+    {
+        // Arrange
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(new LoadFailurePolicy(100, 1000, 50));
+        cacheManager.get(1, x -> null);
+        cacheManager.get(2, x -> "found");
+
+        // Act
+        var cached = cacheManager.get(1, x -> "reloaded");
+        Thread.sleep(100);
+
+        // Assert
+        assertNull(cached);
+        assertEquals("reloaded", cacheManager.get(1, x -> "reloaded"));
+        assertEquals("found", cacheManager.get(2, x -> "reloaded"));
+    }
+
+    /**
+     * Once expired, a value whose reload fails keeps being served until the backend recovers
+     */
+    @Test
+    public void testServeStale() throws InterruptedException
+    {
+        // Arrange
+        AtomicInteger loads = new AtomicInteger();
+        CacheManager<Integer, String> cacheManager = new CacheManager<>(Long.MAX_VALUE, (key, value) -> 1,
+                new ConcurrentStatsCounter(), ReferenceMode.STRONG, new LoadFailurePolicy(60000, 60000, 50, 50, true));
+        cacheManager.get(1, x -> "value");
+        Thread.sleep(100);
+
+        // Act
+        var stale = cacheManager.get(1, x -> { loads.incrementAndGet(); throw new IllegalStateException("database down"); });
+        var staleAgain = cacheManager.get(1, x -> { loads.incrementAndGet(); return "reloaded"; });
+
+        // Assert
+        assertEquals("value", stale);
+        assertEquals("value", staleAgain);
+        assertEquals(1, loads.get());
+        assertEquals(1, cacheManager.stats().loadFailureCount());
+    }
+
     /**
      * Attempt at testing the multi threading writing and reading with collision.
      * Could use timers mixed with thread sleep function to simulate access to an external database,
@@ -0,0 +1,103 @@
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import static org.junit.Assert.assertEquals;
+
+public class IntIntCacheTest {
+
+    @Test
+    public void testAddValue()
+    {
+        // Arrange
+        IntIntCache cache = new IntIntCache();
+
+        // Act
+        var result = cache.get(5, x -> x + 1);
+
+        // Assert
+        assertEquals(6, result);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testValueIsCached()
+    {
+        // Arrange
+        IntIntCache cache = new IntIntCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        cache.get(42, x -> loads.incrementAndGet());
+        var result = cache.get(42, x -> loads.incrementAndGet());
+
+        // Assert
+        assertEquals(1, result);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void AddZeroKey()
+    {
+        // Arrange
+        IntIntCache cache = new IntIntCache();
+
+        // Act
+        var result = cache.get(0, x -> 12);
+
+        // Assert
+        assertEquals(12, result);
+        assertEquals(12, cache.get(0, x -> 13));
+        assertEquals(1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void AssertExceptionHandling()
+    {
+        // Arrange
+        IntIntCache cache = new IntIntCache();
+
+        // Act
+        cache.get(5, x -> { throw new IllegalStateException(); });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGrowPastMaximumCapacity()
+    {
+        // Act
+        PrimitiveHashing.grow(1 << 30);
+    }
+
+    @Test
+    public void testGrowthKeepsEntries()
+    {
+        // Arrange
+        IntIntCache cache = new IntIntCache(1);
+
+        // Act
+        for (int i = -500; i <= 500; i++)
+            cache.get(i, x -> x * 2);
+
+        // Assert
+        assertEquals(1001, cache.size());
+        for (int i = -500; i <= 500; i++)
+            assertEquals(i * 2, cache.get(i, x -> { throw new IllegalStateException(); }));
+    }
+
+    @Test
+    public void testMultiThread()
+    {
+        // Arrange
+        int[] range = IntStream.rangeClosed(-25000, 25000).toArray();
+        IntIntCache cache = new IntIntCache();
+
+        // Act
+        Arrays.stream(range).parallel().forEach(x ->
+        {
+            assertEquals(x + 1, cache.get(x, y -> y + 1));
+        });
+
+        // Assert
+        assertEquals(50001, cache.size());
+    }
+}
@@ -0,0 +1,198 @@
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Two buses over the same file stand for two processes, each claiming its own region
+ */
+public class InvalidationBusTest {
+
+    private InvalidationBus<String> newBus(Path file, Cache<String, String> cache)
+    {
+        return new InvalidationBus<>(file, Codec.utf8(), cache, 4, 8, 32, 0);
+    }
+
+    @Test
+    public void testInvalidationReachesTheOtherProcess() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        CacheManager<String, String> localCache = new CacheManager<>();
+        CacheManager<String, String> remoteCache = new CacheManager<>();
+        try (InvalidationBus<String> local = newBus(file, localCache);
+             InvalidationBus<String> remote = newBus(file, remoteCache)) {
+            localCache.get("hello", x -> "value");
+            remoteCache.get("hello", x -> "value");
+            remoteCache.get("world", x -> "value");
+            remoteCache.get(null, x -> "value");
+
+            // Act
+            local.invalidate("hello");
+            local.publish(null);
+            int applied = remote.poll();
+
+            // Assert
+            assertEquals(2, applied);
+            assertEquals(0, localCache.size());
+            assertEquals(1, remoteCache.size());
+            assertEquals("reloaded", remoteCache.get("hello", x -> "reloaded"));
+            assertEquals("value", remoteCache.get("world", x -> "reloaded"));
+            assertEquals(0, remote.poll());
+            assertEquals(0, local.poll());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A reader more than a ring behind cannot know the keys it missed, and empties its cache
+     */
+    @Test
+    public void testLappedReaderInvalidatesAll() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        CacheManager<String, String> remoteCache = new CacheManager<>();
+        try (InvalidationBus<String> local = newBus(file, new CacheManager<>());
+             InvalidationBus<String> remote = newBus(file, remoteCache)) {
+            remoteCache.get("untouched", x -> "value");
+
+            // Act
+            for (int i = 0; i < 20; i++)
+                local.publish("key" + i);
+            remote.poll();
+
+            // Assert
+            assertEquals(0, remoteCache.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A reader lapped while applying records empties its cache, then resumes at the first record published after
+     */
+    @Test
+    public void testLappedWhileReading() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        try (InvalidationBus<String> local = newBus(file, new CacheManager<>())) {
+            // Applying "trigger" makes the writer publish a whole ring, overwriting the record after it
+            CacheManager<String, String> remoteCache = new CacheManager<>() {
+                @Override
+                public void invalidate(String key) {
+                    super.invalidate(key);
+                    if ("trigger".equals(key))
+                        for (int i = 0; i < 9; i++)
+                            local.publish("lap" + i);
+                }
+            };
+            try (InvalidationBus<String> remote = newBus(file, remoteCache)) {
+                remoteCache.get("untouched", x -> "value");
+                local.publish("first");
+                local.publish("trigger");
+                local.publish("overwritten");
+
+                // Act
+                remote.poll();
+                remoteCache.get("untouched", x -> "value");
+                remoteCache.get("last", x -> "value");
+                local.publish("last");
+                int applied = remote.poll();
+
+                // Assert
+                assertEquals(1, applied);
+                assertEquals("reloaded", remoteCache.get("last", x -> "reloaded"));
+                assertEquals("value", remoteCache.get("untouched", x -> "reloaded"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testOversizedKeyInvalidatesAll() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        CacheManager<String, String> remoteCache = new CacheManager<>();
+        try (InvalidationBus<String> local = newBus(file, new CacheManager<>());
+             InvalidationBus<String> remote = newBus(file, remoteCache)) {
+            remoteCache.get("untouched", x -> "value");
+
+            // Act
+            local.publish("a key far too long for the 32 bytes records");
+            remote.poll();
+
+            // Assert
+            assertEquals(0, remoteCache.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A closed bus releases its region, and the invalidations published meanwhile are not replayed to the new owner
+     */
+    @Test
+    public void testRegionsAreReclaimed() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        try {
+            List<InvalidationBus<String>> buses = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                buses.add(newBus(file, new CacheManager<>()));
+            boolean full = false;
+            try {
+                newBus(file, new CacheManager<>());
+            } catch (IllegalStateException e) {
+                full = true;
+            }
+
+            // Act
+            buses.get(1).publish("hello");
+            buses.get(1).close();
+            CacheManager<String, String> cache = new CacheManager<>();
+            cache.get("hello", x -> "value");
+            buses.set(1, newBus(file, cache));
+
+            // Assert
+            assertEquals(true, full);
+            assertEquals(0, buses.get(1).poll());
+            assertEquals(1, cache.size());
+            for (InvalidationBus<String> bus : buses)
+                bus.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBackgroundPoll() throws Exception
+    {
+        // Arrange
+        Path file = Files.createTempFile("invalidation", ".bus");
+        CacheManager<String, String> remoteCache = new CacheManager<>();
+        try (InvalidationBus<String> local = new InvalidationBus<>(file, Codec.utf8(), new CacheManager<>());
+             InvalidationBus<String> remote = new InvalidationBus<>(file, Codec.utf8(), remoteCache)) {
+            remoteCache.get("hello", x -> "value");
+
+            // Act
+            local.invalidate("hello");
+
+            // Assert
+            while (remoteCache.size() > 0)
+                Thread.sleep(1);
+            // The background poll already moved past the record
+            assertEquals(0, remote.poll());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import static org.junit.Assert.assertEquals;
+
+public class LongLongCacheTest {
+
+    @Test
+    public void testAddValue()
+    {
+        // Arrange
+        LongLongCache cache = new LongLongCache();
+
+        // Act
+        var result = cache.get(5L, x -> x + 1);
+
+        // Assert
+        assertEquals(6L, result);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testValueIsCached()
+    {
+        // Arrange
+        LongLongCache cache = new LongLongCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        cache.get(42L, x -> loads.incrementAndGet());
+        var result = cache.get(42L, x -> loads.incrementAndGet());
+
+        // Assert
+        assertEquals(1L, result);
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * The key 0 marks the free slots of the table, it lives in its own fields
+     */
+    @Test
+    public void AddZeroKey()
+    {
+        // Arrange
+        LongLongCache cache = new LongLongCache();
+        cache.get(1L, x -> 1L);
+
+        // Act
+        var result = cache.get(0L, x -> 12L);
+
+        // Assert
+        assertEquals(12L, result);
+        assertEquals(12L, cache.get(0L, x -> 13L));
+        assertEquals(1L, cache.get(1L, x -> 13L));
+        assertEquals(2, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void AssertExceptionHandling()
+    {
+        // Arrange
+        LongLongCache cache = new LongLongCache();
+
+        // Act
+        cache.get(5L, x -> { throw new IllegalStateException(); });
+    }
+
+    @Test
+    public void testGrowthKeepsEntries()
+    {
+        // Arrange
+        LongLongCache cache = new LongLongCache(1);
+        long[] keys = LongStream.rangeClosed(-500, 500).map(x -> x * 0x100000001L).toArray();
+
+        // Act
+        for (long key : keys)
+            cache.get(key, x -> ~x);
+        cache.get(Long.MIN_VALUE, x -> 1L);
+        cache.get(Long.MAX_VALUE, x -> 2L);
+
+        // Assert
+        assertEquals(1003, cache.size());
+        for (long key : keys)
+            assertEquals(~key, cache.get(key, x -> { throw new IllegalStateException(); }));
+        assertEquals(1L, cache.get(Long.MIN_VALUE, x -> 3L));
+        assertEquals(2L, cache.get(Long.MAX_VALUE, x -> 3L));
+    }
+
+    /**
+     * The load lock stripes let each key be loaded once, even when many threads ask for it at the same time
+     */
+    @Test
+    public void testMultiThread()
+    {
+        // Arrange
+        long[] range = LongStream.rangeClosed(-2500, 2500).toArray();
+        LongLongCache cache = new LongLongCache();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        for (int round = 0; round < 4; round++)
+            Arrays.stream(range).parallel().forEach(x ->
+            {
+                assertEquals(x * 3, cache.get(x, y -> { loads.incrementAndGet(); return y * 3; }));
+            });
+
+        // Assert
+        assertEquals(5001, cache.size());
+        assertEquals(5001, loads.get());
+    }
+}
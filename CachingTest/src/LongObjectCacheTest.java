@@ -0,0 +1,114 @@
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LongObjectCacheTest {
+
+    @Test
+    public void testAddValue()
+    {
+        // Arrange
+        LongObjectCache<String> cache = new LongObjectCache<>();
+
+        // Act
+        var result = cache.get(5L, x -> "value" + x);
+
+        // Assert
+        assertEquals("value5", result);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testValueIsCached()
+    {
+        // Arrange
+        LongObjectCache<String> cache = new LongObjectCache<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        cache.get(42L, x -> { loads.incrementAndGet(); return "first"; });
+        var result = cache.get(42L, x -> { loads.incrementAndGet(); return "second"; });
+
+        // Assert
+        assertEquals("first", result);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void AddZeroKey()
+    {
+        // Arrange
+        LongObjectCache<String> cache = new LongObjectCache<>();
+
+        // Act
+        var result = cache.get(0L, x -> "zero");
+
+        // Assert
+        assertEquals("zero", result);
+        assertEquals("zero", cache.get(0L, x -> "other"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void AddNullValue()
+    {
+        // Arrange
+        LongObjectCache<String> cache = new LongObjectCache<>();
+
+        // Act
+        var result = cache.get(7L, x -> null);
+
+        // Assert
+        assertNull(result);
+        assertNull(cache.get(7L, x -> "not null"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void AssertExceptionHandling()
+    {
+        // Arrange
+        LongObjectCache<String> cache = new LongObjectCache<>();
+
+        // Act
+        cache.get(5L, x -> { throw new IllegalStateException("database down"); });
+    }
+
+    /**
+     * Goes well beyond the initial capacity, to check the entries survive the resizes
+     */
+    @Test
+    public void testGrowth()
+    {
+        // Arrange
+        LongObjectCache<Long> cache = new LongObjectCache<>(4);
+
+        // Act
+        for (long i = -5000; i <= 5000; i++)
+            cache.get(i, x -> x * 2);
+
+        // Assert
+        assertEquals(10001, cache.size());
+        for (long i = -5000; i <= 5000; i++)
+            assertEquals(i * 2, (long) cache.get(i, x -> -1L));
+    }
+
+    @Test
+    public void testMultiThread()
+    {
+        // Arrange
+        long[] range = LongStream.rangeClosed(1, 50000).toArray();
+        LongObjectCache<Long> cache = new LongObjectCache<>();
+
+        // Act
+        Arrays.stream(range).parallel().forEach(x ->
+        {
+            assertEquals(x + 1, (long) cache.get(x, y -> y + 1));
+        });
+
+        // Assert
+        assertEquals(50000, cache.size());
+    }
+}
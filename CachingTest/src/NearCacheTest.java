@@ -0,0 +1,108 @@
+import org.junit.Test;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NearCacheTest {
+
+    @Test
+    public void testHitsAreServedFromL0()
+    {
+        // Arrange
+        CacheManager<Integer, String> shared = new CacheManager<>(new ConcurrentStatsCounter());
+        NearCache<Integer, String> cache = new NearCache<>(shared, 16);
+
+        // Act
+        var result = cache.get(1, x -> "value" + x);
+        for (int i = 0; i < 10; i++)
+            cache.get(1, x -> "reloaded");
+
+        // Assert
+        assertEquals("value1", result);
+        assertEquals(1, shared.stats().missCount());
+        assertEquals(0, shared.stats().hitCount());
+    }
+
+    @Test
+    public void AddNullKeyAndValue()
+    {
+        // Arrange
+        NearCache<Integer, String> cache = new NearCache<>(new CacheManager<>());
+
+        // Act
+        var result = cache.get(null, x -> null);
+
+        // Assert
+        assertNull(result);
+        assertNull(cache.get(null, x -> "not null"));
+    }
+
+    /**
+     * Two keys of the same slot take turns, each one still reading its own value
+     */
+    @Test
+    public void testSlotCollision()
+    {
+        // Arrange
+        NearCache<Integer, String> cache = new NearCache<>(new CacheManager<>(), 1);
+
+        // Act
+        cache.get(1, x -> "one");
+        cache.get(2, x -> "two");
+
+        // Assert
+        assertEquals("one", cache.get(1, x -> "reloaded"));
+        assertEquals("two", cache.get(2, x -> "reloaded"));
+    }
+
+    /**
+     * A write from another thread outdates the copy held by the L0 of this thread
+     */
+    @Test
+    public void testWritesAreObservedByOtherThreads()
+    {
+        // Arrange
+        NearCache<Integer, String> cache = new NearCache<>(new CacheManager<>());
+        cache.get(1, x -> "one");
+        cache.get(2, x -> "two");
+        cache.get(3, x -> "three");
+
+        // Act
+        CompletableFuture.runAsync(() -> {
+            cache.put(1, "put");
+            cache.invalidate(2);
+        }).join();
+
+        // Assert
+        assertEquals("put", cache.get(1, x -> "reloaded"));
+        assertEquals("reloaded", cache.get(2, x -> "reloaded"));
+        assertEquals("three", cache.get(3, x -> "reloaded"));
+
+        // Act
+        CompletableFuture.runAsync(cache::invalidateAll).join();
+
+        // Assert
+        assertEquals("reloaded", cache.get(3, x -> "reloaded"));
+    }
+
+    /**
+     * An L0 copy is served for the maximum staleness at most, so a value the shared cache expired goes as well
+     */
+    @Test
+    public void testCopiesExpireAfterMaximumStaleness() throws InterruptedException
+    {
+        // Arrange
+        CacheManager<Integer, String> shared = new CacheManager<>(new LoadFailurePolicy(0, 0, Long.MAX_VALUE, 20, false));
+        NearCache<Integer, String> cache = new NearCache<>(shared, 16, 50);
+        cache.get(1, x -> "one");
+
+        // Act
+        var beforeStaleness = cache.get(1, x -> "reloaded");
+        Thread.sleep(100);
+        var afterStaleness = cache.get(1, x -> "reloaded");
+
+        // Assert
+        assertEquals("one", beforeStaleness);
+        assertEquals("reloaded", afterStaleness);
+    }
+}
@@ -0,0 +1,237 @@
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCacheTest {
+
+    private OffHeapCache<String, String> newCache(int segmentSize, int maximumSegments)
+    {
+        return new OffHeapCache<>(Codec.utf8(), Codec.utf8(), segmentSize, maximumSegments);
+    }
+
+    @Test
+    public void testAddReference()
+    {
+        // Arrange
+        Cache<String, String> cache = newCache(1 << 16, 4);
+
+        // Act
+        var result = cache.get("hello", x -> x.concat("value"));
+
+        // Assert
+        assertEquals("hellovalue", result);
+        assertEquals("hellovalue", cache.get("hello", x -> "reloaded"));
+    }
+
+    @Test
+    public void AddNullKeyAndValue()
+    {
+        // Arrange
+        OffHeapCache<String, String> cache = newCache(1 << 16, 4);
+
+        // Act
+        var result = cache.get(null, x -> null);
+
+        // Assert
+        assertNull(result);
+        assertNull(cache.get(null, x -> "not null"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void AssertExceptionHandling()
+    {
+        // Arrange
+        Cache<String, String> cache = newCache(1 << 16, 4);
+
+        // Act
+        cache.get("hello", x -> { throw new IllegalStateException("database down"); });
+    }
+
+    @Test
+    public void testGetView()
+    {
+        // Arrange
+        OffHeapCache<String, byte[]> cache = new OffHeapCache<>(Codec.utf8(), Codec.bytes(), 1 << 16, 4);
+
+        // Act
+        var readOnly = cache.getView("hello", x -> x.getBytes(StandardCharsets.UTF_8), ByteBuffer::isReadOnly);
+        var result = cache.getView("hello", x -> null, view -> StandardCharsets.UTF_8.decode(view).toString());
+
+        // Assert
+        assertTrue(readOnly);
+        assertEquals("hello", result);
+    }
+
+    /**
+     * The slot of the view cannot be freed and reused by another entry while the reader runs
+     */
+    @Test(timeout = 10000)
+    public void testGetViewBlocksSlotReuse() throws InterruptedException
+    {
+        // Arrange
+        OffHeapCache<String, byte[]> cache = new OffHeapCache<>(Codec.utf8(), Codec.bytes(), 1 << 16, 4);
+        cache.get("hello", x -> x.getBytes(StandardCharsets.UTF_8));
+        Thread writer = new Thread(() -> {
+            cache.invalidate("hello");
+            cache.put("other", "world".getBytes(StandardCharsets.UTF_8));
+        });
+
+        // Act
+        var result = cache.getView("hello", x -> null, view -> {
+            writer.start();
+            try {
+                writer.join(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return writer.isAlive() + " " + StandardCharsets.UTF_8.decode(view);
+        });
+        writer.join();
+
+        // Assert
+        assertEquals("true hello", result);
+        assertNull(cache.getView("hello", x -> null, view -> view));
+    }
+
+    @Test
+    public void testOversizedValueIsNotCached()
+    {
+        // Arrange
+        OffHeapCache<String, String> cache = newCache(128, 4);
+        String large = "x".repeat(500);
+
+        // Act
+        var result = cache.get("large", x -> large);
+
+        // Assert
+        assertEquals(large, result);
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Four segments of 1KB holding 64 bytes slots: the oldest segments get evicted as a whole
+     */
+    @Test
+    public void testSegmentEviction()
+    {
+        // Arrange
+        OffHeapCache<String, String> cache = newCache(1024, 4);
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        for (int i = 0; i < 200; i++)
+            cache.get("key" + i, x -> { loads.incrementAndGet(); return x; });
+
+        // Assert
+        assertTrue(cache.size() <= 4 * 16);
+        assertEquals("key199", cache.get("key199", x -> { loads.incrementAndGet(); return "reloaded"; }));
+        assertEquals(200, loads.get());
+        assertEquals("reloaded", cache.get("key0", x -> "reloaded"));
+    }
+
+    @Test
+    public void testMemoryMapped() throws IOException
+    {
+        // Arrange
+        Path file = Files.createTempFile("offheap", ".cache");
+        try (OffHeapCache<Integer, String> cache = new OffHeapCache<>(Codec.integers(), Codec.utf8(), 1 << 16, 2, file)) {
+
+            // Act
+            IntStream.range(0, 1000).forEach(x -> cache.get(x, y -> "value" + y));
+
+            // Assert
+            assertEquals(1000, cache.size());
+            assertEquals("value500", cache.get(500, y -> "reloaded"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testPutAndInvalidate()
+    {
+        // Arrange
+        OffHeapCache<String, String> cache = newCache(1 << 16, 4);
+        cache.get("hello", x -> "loaded");
+        cache.get("world", x -> "loaded");
+
+        // Act
+        cache.put("hello", "a longer value moving to a larger slab class");
+        cache.invalidate("world");
+
+        // Assert
+        assertEquals("a longer value moving to a larger slab class", cache.get("hello", x -> "reloaded"));
+        assertEquals("reloaded", cache.get("world", x -> "reloaded"));
+        assertEquals(2, cache.size());
+
+        // Act
+        cache.invalidateAll();
+
+        // Assert
+        assertEquals(0, cache.size());
+        assertEquals("reloaded", cache.get("hello", x -> "reloaded"));
+    }
+
+    /**
+     * An invalidate arriving while a load runs waits for it, so the next get does not see the value loaded before
+     */
+    @Test(timeout = 10000)
+    public void testInvalidateDuringLoad() throws InterruptedException
+    {
+        // Arrange
+        OffHeapCache<String, String> cache = newCache(1 << 16, 4);
+        String key = "key";
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread loader = new Thread(() -> cache.get(key, x -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "before";
+        }));
+        loader.start();
+        loading.await();
+
+        // Act
+        Thread invalidator = new Thread(() -> cache.invalidate(key));
+        invalidator.start();
+        invalidator.join(100);
+        release.countDown();
+        loader.join();
+        invalidator.join();
+
+        // Assert
+        assertEquals("after", cache.get(key, x -> "after"));
+    }
+
+    @Test
+    public void testMultiThread()
+    {
+        // Arrange
+        int[] range = IntStream.rangeClosed(1, 5000).toArray();
+        OffHeapCache<Integer, Integer> cache = new OffHeapCache<>(Codec.integers(), Codec.integers(), 1 << 20, 4);
+
+        // Act
+        Arrays.stream(range).parallel().forEach(x ->
+        {
+            assertEquals(x + 1, (int) cache.get(x, y -> y + 1));
+        });
+
+        // Assert
+        assertEquals(5000, cache.size());
+    }
+}
@@ -0,0 +1,254 @@
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TieredCacheTest {
+
+    /**
+     * Removes a temporary directory and the segment files in it
+     */
+    private void delete(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private long countFiles(Path directory) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private DiskStore<Integer, String> newStore(Path directory)
+    {
+        return new DiskStore<>(directory, Codec.integers(), Codec.utf8(), 4096, 8, 0);
+    }
+
+    @Test
+    public void testAddReference() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        try (TieredCache<Integer, String> cache = new TieredCache<>(10, newStore(directory))) {
+
+            // Act
+            var result = cache.get(5, x -> "value" + x);
+
+            // Assert
+            assertEquals("value5", result);
+            assertEquals(1, cache.l1Size());
+            assertEquals(0, cache.l2Size());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void AddNullKeyAndValue() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        try (TieredCache<Integer, String> cache = new TieredCache<>(10, newStore(directory))) {
+
+            // Act
+            var result = cache.get(null, x -> null);
+
+            // Assert
+            assertNull(result);
+            assertNull(cache.get(null, x -> "not null"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testEvictedEntriesSpillToL2() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        AtomicInteger loads = new AtomicInteger();
+        try (TieredCache<Integer, String> cache = new TieredCache<>(10, newStore(directory))) {
+
+            // Act
+            for (int i = 0; i < 50; i++)
+                cache.get(i, x -> { loads.incrementAndGet(); return "value" + x; });
+
+            // Assert
+            assertEquals(10, cache.l1Size());
+            assertEquals(40, cache.l2Size());
+            assertEquals("value0", cache.get(0, x -> { loads.incrementAndGet(); return "reloaded"; }));
+            assertEquals(50, loads.get());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A put or an invalidate must not let a stale copy of the key come back from L2
+     */
+    @Test
+    public void testPutAndInvalidateReachL2() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        try (TieredCache<Integer, String> cache = new TieredCache<>(10, newStore(directory))) {
+            for (int i = 0; i < 50; i++)
+                cache.get(i, x -> "value" + x);
+
+            // Act
+            cache.put(0, "put");
+            cache.invalidate(1);
+
+            // Assert
+            assertEquals("put", cache.get(0, x -> "reloaded"));
+            assertEquals("reloaded", cache.get(1, x -> "reloaded"));
+
+            // Act
+            cache.invalidateAll();
+
+            // Assert
+            assertEquals(0, cache.l1Size());
+            assertEquals(0, cache.l2Size());
+            assertEquals("reloaded", cache.get(2, x -> "reloaded"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * An invalidate landing between the eviction of a key from L1 and its spill to L2 must not be undone by the spill
+     */
+    @Test
+    public void testInvalidateDuringConcurrentEviction() throws Exception
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        AtomicBoolean running = new AtomicBoolean(true);
+        try (TieredCache<Integer, String> cache = new TieredCache<>(2, newStore(directory))) {
+            Thread evictor = new Thread(() -> {
+                for (int i = 0; running.get(); i++)
+                    cache.get(1 + i % 100, x -> "value" + x);
+            });
+            evictor.start();
+
+            // Act
+            List<String> stale = new ArrayList<>();
+            for (int round = 0; round < 20000; round++) {
+                String expected = "round" + round;
+                cache.get(0, x -> expected);
+                cache.invalidate(0);
+                String next = "round" + (round + 1);
+                String result = cache.get(0, x -> next);
+                if (!result.equals(next))
+                    stale.add(result);
+                cache.invalidate(0);
+            }
+            running.set(false);
+            evictor.join();
+
+            // Assert
+            assertEquals(List.of(), stale);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * A new cache over the same directory serves the previous content without calling the backend
+     */
+    @Test
+    public void testWarmRestart() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        AtomicInteger loads = new AtomicInteger();
+        try {
+            try (TieredCache<Integer, String> cache = new TieredCache<>(10, newStore(directory))) {
+                for (int i = 0; i < 100; i++)
+                    cache.get(i, x -> "value" + x);
+            }
+
+            // Act
+            try (TieredCache<Integer, String> restarted = new TieredCache<>(10, newStore(directory))) {
+
+                // Assert
+                assertEquals(100, restarted.l2Size());
+                for (int i = 0; i < 100; i++)
+                    assertEquals("value" + i, restarted.get(i, x -> { loads.incrementAndGet(); return "reloaded"; }));
+                assertEquals(0, loads.get());
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Overwriting the same keys leaves the first segments dead, the compaction deletes them and keeps the live records
+     */
+    @Test
+    public void testCompaction() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        DiskStore<Integer, String> store = newStore(directory);
+        try {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 50; i++)
+                    store.put(i, "value" + i + "-" + round);
+            }
+            long segmentsBefore = countFiles(directory);
+
+            // Act
+            store.compact();
+
+            // Assert
+            assertEquals(50, store.size());
+            assertEquals("value7-4", store.get(7));
+            assertEquals(true, countFiles(directory) < segmentsBefore);
+        } finally {
+            store.close();
+            delete(directory);
+        }
+    }
+
+    /**
+     * Segment ids are not reused after a clear, so a pointer to a deleted segment cannot resolve to a new one
+     */
+    @Test
+    public void testSegmentIdsSurviveClear() throws IOException
+    {
+        // Arrange
+        Path directory = Files.createTempDirectory("tiered");
+        DiskStore<Integer, String> store = newStore(directory);
+        try {
+            store.put(1, "before");
+            Path before;
+            try (Stream<Path> files = Files.list(directory)) {
+                before = files.findFirst().orElseThrow();
+            }
+
+            // Act
+            store.clear();
+            store.put(1, "after");
+
+            // Assert
+            assertEquals(false, Files.exists(before));
+            assertEquals(1, countFiles(directory));
+            assertEquals("after", store.get(1));
+        } finally {
+            store.close();
+            delete(directory);
+        }
+    }
+}
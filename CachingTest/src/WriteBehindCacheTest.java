@@ -0,0 +1,270 @@
+import org.junit.Test;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindCacheTest {
+
+    /**
+     * A backend recording every batch it receives
+     */
+    private final List<Map<Integer, String>> _batches = new ArrayList<>();
+
+    private synchronized void write(Map<Integer, String> entries)
+    {
+        _batches.add(new HashMap<>(entries));
+    }
+
+    private synchronized int writtenEntries()
+    {
+        return _batches.stream().mapToInt(Map::size).sum();
+    }
+
+    @Test
+    public void testPutIsCachedBeforeBeingWritten() throws IOException
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), this::write, 100, 60000)) {
+
+            // Act
+            cache.put(1, "one");
+
+            // Assert
+            assertEquals("one", cache.get(1, x -> "loaded"));
+            assertEquals(1, cache.pendingWrites());
+            assertEquals(0, writtenEntries());
+        }
+        assertEquals(1, writtenEntries());
+    }
+
+    /**
+     * Repeated updates of a hot key cost a single backend write, holding its latest value
+     */
+    @Test
+    public void testUpdatesAreCoalesced() throws IOException
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), this::write, 100, 60000)) {
+
+            // Act
+            for (int i = 0; i < 1000; i++)
+                cache.put(i % 3, "value" + i);
+            cache.put(null, "null key");
+            cache.flush();
+
+            // Assert
+            assertEquals(1, _batches.size());
+            assertEquals(4, _batches.get(0).size());
+            assertEquals("value999", _batches.get(0).get(0));
+            assertEquals("value998", _batches.get(0).get(2));
+            assertEquals("null key", _batches.get(0).get(null));
+            assertEquals(0, cache.pendingWrites());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSizeTrigger() throws Exception
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), this::write, 10, 60000)) {
+
+            // Act
+            for (int i = 0; i < 10; i++)
+                cache.put(i, "value" + i);
+
+            // Assert
+            while (writtenEntries() < 10)
+                Thread.sleep(10);
+            assertEquals(0, cache.pendingWrites());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTimeTrigger() throws Exception
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), this::write, 100, 50)) {
+
+            // Act
+            cache.put(1, "one");
+
+            // Assert
+            while (writtenEntries() < 1)
+                Thread.sleep(10);
+            assertEquals("one", _batches.get(0).get(1));
+        }
+    }
+
+    /**
+     * A failed batch stays pending, without overwriting the updates that came in meanwhile
+     */
+    @Test
+    public void testFailedBatchIsRetried() throws IOException
+    {
+        // Arrange
+        AtomicBoolean down = new AtomicBoolean(true);
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), entries -> {
+            if (down.get())
+                throw new IOException("database down");
+            write(entries);
+        }, 100, 60000)) {
+            cache.put(1, "one");
+            cache.put(2, "two");
+
+            // Act
+            boolean failed = false;
+            try {
+                cache.flush();
+            } catch (IllegalStateException e) {
+                failed = true;
+            }
+            cache.put(2, "two again");
+            down.set(false);
+            cache.flush();
+
+            // Assert
+            assertTrue(failed);
+            assertEquals(1, _batches.size());
+            assertEquals("one", _batches.get(0).get(1));
+            assertEquals("two again", _batches.get(0).get(2));
+        }
+    }
+
+    /**
+     * A flush only writes what was pending when called, so puts landing meanwhile cannot keep it running
+     */
+    @Test(timeout = 10000)
+    public void testFlushIsBoundedUnderConcurrentPuts() throws IOException
+    {
+        // Arrange
+        List<WriteBehindCache<Integer, String>> holder = new ArrayList<>();
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), entries -> {
+            write(entries);
+            // Every batch written brings a new pending put
+            holder.get(0).put(1000 + writtenEntries(), "late");
+        }, 100, 60000)) {
+            holder.add(cache);
+            for (int i = 0; i < 10; i++)
+                cache.put(i, "value" + i);
+
+            // Act
+            cache.flush();
+
+            // Assert
+            assertEquals(10, writtenEntries());
+            assertEquals(1, cache.pendingWrites());
+        }
+    }
+
+    /**
+     * A failed background flush is reported, and its entries are written by a later one
+     */
+    @Test(timeout = 10000)
+    public void testBackgroundFailureIsReported() throws Exception
+    {
+        // Arrange
+        AtomicBoolean down = new AtomicBoolean(true);
+        List<Exception> failures = new ArrayList<>();
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), entries -> {
+            if (down.get())
+                throw new IOException("database down");
+            write(entries);
+        }, 100, 20, e -> { synchronized (failures) { failures.add(e); } })) {
+
+            // Act
+            cache.put(1, "one");
+            while (cache.failedFlushes() < 1)
+                Thread.sleep(10);
+            down.set(false);
+            while (cache.pendingWrites() > 0)
+                Thread.sleep(10);
+
+            // Assert
+            synchronized (failures) {
+                assertTrue(failures.size() >= 1);
+                assertTrue(failures.get(0).getCause() instanceof IOException);
+            }
+            assertEquals("one", _batches.get(0).get(1));
+            assertEquals(0, cache.pendingWrites());
+        }
+    }
+
+    /**
+     * An invalidated key waiting to be written gets its pending value, not the stale one of the backend
+     */
+    @Test
+    public void testInvalidatedPutIsNotReloaded() throws IOException
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), this::write, 100, 60000)) {
+            cache.put(1, "one");
+            cache.put(null, "null key");
+
+            // Act
+            cache.invalidate(1);
+            cache.invalidateAll();
+
+            // Assert
+            assertEquals("one", cache.get(1, x -> "stale"));
+            assertEquals("null key", cache.get(null, x -> "stale"));
+            assertEquals(2, cache.pendingWrites());
+        }
+    }
+
+    /**
+     * An evicted key waiting to be written gets its pending value, not the stale one of the backend
+     */
+    @Test
+    public void testEvictedPutIsNotReloaded() throws IOException
+    {
+        // Arrange
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(1, (key, value) -> 1), this::write, 100, 60000)) {
+            cache.put(1, "one");
+
+            // Act
+            cache.put(2, "two");
+
+            // Assert
+            assertEquals("one", cache.get(1, x -> "stale"));
+            assertEquals("two", cache.get(2, x -> "stale"));
+        }
+    }
+
+    /**
+     * The entries of the batch being written stay pending until the writer returns, so a get meanwhile finds them
+     */
+    @Test(timeout = 10000)
+    public void testPutBeingWrittenIsNotReloaded() throws Exception
+    {
+        // Arrange
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (WriteBehindCache<Integer, String> cache = new WriteBehindCache<>(new CacheManager<>(), entries -> {
+            writing.countDown();
+            release.await();
+            write(entries);
+        }, 100, 60000)) {
+            cache.put(1, "one");
+            Thread flusher = new Thread(cache::flush);
+            flusher.start();
+            writing.await();
+
+            // Act
+            cache.invalidate(1);
+            String result = cache.get(1, x -> "stale");
+            release.countDown();
+            flusher.join();
+
+            // Assert
+            assertEquals("one", result);
+            assertEquals(0, cache.pendingWrites());
+            assertEquals(1, writtenEntries());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A version of the DeadlineFastManager storing its deadlines in a primitive B+tree instead of a TreeSet.
+ * Technical: same encoding, 43 bits for the deadline and 20 bits of Ids for each deadline, but the longs sit in
+ * sorted arrays of 128 (the leaves of the LongBPlusTree): about 12 bytes per deadline against 56+ for the TreeMap.Entry
+ * and boxed Long of the TreeSet, and a poll reads the expired deadlines from the leftmost leaf in bulk.
+ * The tree counts the keys under each branch, so the queries of DeadlineQueryEngine run in O(log n) under the read lock.
+ * Note 1: the handlers run on a pool of daemon threads, released by close.
+ */
+public class DeadlineBTreeManager implements DeadlineQueryEngine, AutoCloseable {
+    /**
+     * This is 278 years from epoch in milliseconds
+     */
+    private final long _maximumDeadline = 2L << 43;
+
+    /**
+     * Lock that allows multiple reads at the same time
+     */
+    private final ReentrantReadWriteLock _readWriteLock = new ReentrantReadWriteLock();
+
+    /**
+     * Readlock shortcut for convenience
+     */
+    private final Lock _readLock = _readWriteLock.readLock();
+
+    /**
+     * Writelock shortcut for convenience
+     */
+    private final Lock _writeLock = _readWriteLock.writeLock();
+
+    /**
+     * Number of bits reserves for a unique ID at a given date
+     * 2^20 = 1 million different entries allowed for a given date
+     */
+    private final long _deadlineUniqueIdBits = 20;
+
+    /**
+     * Used to run the callback methods
+     */
+    private final DeadlineHandlerExecutor _handlerExecutor;
+
+    /**
+     * Set by close, the polls then fire nothing. Guarded by the write lock.
+     */
+    private boolean _closed;
+
+    /**
+     * The deadlines, encoded as in DeadlineFastManager
+     * first (1+) 43 bits are the deadline time in the future from now in milliseconds
+     * last 20 bits are the unique ID of the deadline
+     */
+    private final LongBPlusTree _deadlines;
+
+    /**
+     * New instance of this class
+     */
+    public DeadlineBTreeManager() {
+        this(10000);
+    }
+
+    /**
+     * New instance of this class
+     * @param handlersTimeOut The timeout for handlers requests when polling. Threads will be killed silently after that time.
+     */
+    public DeadlineBTreeManager(long handlersTimeOut) {
+        _deadlines = new LongBPlusTree();
+        _handlerExecutor = new DeadlineHandlerExecutor(handlersTimeOut);
+    }
+
+    /**
+     * returns the lowerbound for this deadline and its 20 bits of unique IDs
+     * @param timeFromEpoch the original time from Epoch
+     * @return the time from Epoch, moved '_deadlineUniqueIdBits' bits to the left
+     */
+    private long getDeadLineLowerBoundBitwise(long timeFromEpoch) throws IllegalArgumentException {
+        if(timeFromEpoch > _maximumDeadline)
+            throw new IllegalArgumentException("The deadline you sent it more than 34 years in the future");
+
+        return timeFromEpoch << _deadlineUniqueIdBits;
+    }
+
+    /**
+     * Request a new deadline be added to the engine.  The deadline is in millis offset from
+     * unix epoch. https://en.wikipedia.org/wiki/Unix_time
+     * The engine will raise an event whenever a deadline (usually now in millis) supplied in the poll method
+     * exceeds the request deadline.
+     * Note 1: Logarithmic running time ( O(log n) ), a single descent to find the last ID of that deadline
+     * @param deadlineMs the millis
+     * @return An identifier for the scheduled deadline.
+     * @throws IllegalArgumentException if the deadline is too far, or already holds 2^20 IDs
+     */
+    public long schedule(long deadlineMs) {
+        var bitwiseDeadLineLowerBound = getDeadLineLowerBoundBitwise(deadlineMs);
+        var bitwiseDeadLineUpperBound = getDeadLineLowerBoundBitwise(deadlineMs + 1);
+
+        _writeLock.lock();
+        try {
+            // The greatest ID below the next millisecond is the last ID of that deadline, if it has any
+            long lastId = _deadlines.lower(bitwiseDeadLineUpperBound, Long.MIN_VALUE);
+            long newId = lastId >= bitwiseDeadLineLowerBound ? lastId + 1 : bitwiseDeadLineLowerBound;
+            if (newId == bitwiseDeadLineUpperBound)
+                throw new IllegalArgumentException("All the IDs of the deadline " + deadlineMs + " are used");
+
+            _deadlines.add(newId);
+            return newId;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the scheduled event using the identifier returned when the deadline was scheduled.
+     * Note 1: Logarithmic running time ( O(log n) ) as for access to the deadlines
+     * @param requestId identifier to cancel.
+     * @return true if canceled.
+     */
+    public boolean cancel(long requestId) {
+        _writeLock.lock();
+        try {
+            return _deadlines.remove(requestId);
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Supplies a deadline in millis to check against scheduled deadlines.  If any deadlines are triggered the
+     * supplied handler is called with the identifier of the expired deadline.
+     * To avoid a system flood and manage how many expired events we can handle we also pass in the maximum number of
+     * expired deadlines to fire.  Those expired deadlines that weren't raised will be available in the next poll.
+     * There is no need for the triggered deadlines to fire in order.
+     * Note 1: O(log n) per leaf of 128 deadlines, the expired ones being at the start of the leftmost leaf
+     * Note 2: Will run in parallel the execution of multiple handler. Won't throw exceptions, see timedOutHandlers.
+     * Note 3: fires nothing once closed, the expired deadlines staying registered.
+     * @param nowMs   time in millis since epoch to check deadlines against.
+     * @param handler to call with identifier of expired deadlines.
+     * @param maxPoll count of maximum number of expired deadlines to process.
+     * @return number of expired deadlines that fired successfully, 0 once closed.
+     */
+    public int poll(long nowMs, Consumer<Long> handler, int maxPoll) {
+        var bitwiseDeadLineUpperBound = getDeadLineLowerBoundBitwise(nowMs + 1);
+
+        _writeLock.lock();
+        try {
+            if (_closed)
+                return 0;
+
+            return _deadlines.pollBelow(bitwiseDeadLineUpperBound, maxPoll, element -> _handlerExecutor.run(handler, element));
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * 0(1) time complexity, the first key of the leftmost leaf
+     * @return the earliest registered deadline in millis since epoch, Long.MAX_VALUE if there is none.
+     */
+    public long nextDeadline() {
+        _readLock.lock();
+        try {
+            return _deadlines.isEmpty() ? Long.MAX_VALUE : _deadlines.first() >> _deadlineUniqueIdBits;
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the deadlines a poll would fire at a given time, minus one millisecond.
+     * Note 1: Logarithmic running time ( O(log n) ), the rank of the bound in the tree
+     * @param ms time in millis since epoch.
+     * @return the number of registered deadlines strictly before that time.
+     */
+    public int countExpiringBefore(long ms) {
+        _readLock.lock();
+        try {
+            // Every deadline is before a time beyond the maximum one
+            return ms > _maximumDeadline ? _deadlines.size() : _deadlines.countBelow(getDeadLineLowerBoundBitwise(ms));
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * Same selection as poll, but the expired deadlines stay registered and the handler runs on the calling thread.
+     * Note 1: O(maxPeek), walking the leaves from the leftmost one
+     * @param nowMs time in millis since epoch to check deadlines against.
+     * @param handler to call with identifier of expired deadlines.
+     * @param maxPeek count of maximum number of expired deadlines to pass.
+     * @return number of expired deadlines passed to the handler.
+     */
+    public int peekExpired(long nowMs, LongConsumer handler, int maxPeek) {
+        var bitwiseDeadLineUpperBound = getDeadLineLowerBoundBitwise(nowMs + 1);
+
+        _readLock.lock();
+        try {
+            return _deadlines.peekBelow(bitwiseDeadLineUpperBound, maxPeek, handler);
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of handlers interrupted for running longer than the handlers timeout
+     */
+    public long timedOutHandlers() {
+        return _handlerExecutor.timedOutHandlers();
+    }
+
+    /**
+     * Graceful shutdown of the handlers pool: the running handlers get their timeout to finish.
+     * The deadlines stay registered, but can no longer be polled.
+     */
+    public void close() {
+        // Under the lock, so a poll in progress hands its handlers over before the pool stops accepting them
+        _writeLock.lock();
+        try {
+            _closed = true;
+        } finally {
+            _writeLock.unlock();
+        }
+        _handlerExecutor.close();
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the number of registered deadlines.
+     */
+    public int size() {
+        _readLock.lock();
+        try {
+            return _deadlines.size();
+        } finally {
+            _readLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A version of the DeadlineFastManager for dense bursts, where thousands of deadlines share the same millisecond.
+ * Technical: same encoding, 43 bits for the deadline and 20 bits of Ids for each deadline, but the tree holds one
+ * bucket per distinct millisecond instead of one node per deadline. A bucket is a bitmap of the live Ids of its
+ * millisecond: a deadline costs a bit instead of a TreeMap.Entry and a boxed Long (56+ bytes), and the tree is only as
+ * deep as the number of distinct milliseconds.
+ * The bitmap only keeps the words from its lowest live Id to its last allocated one, so a bucket whose first Ids
+ * were fired or cancelled does not keep their words.
+ * The live count of each bucket is mirrored in a LongCountTree, so the deadlines before a given time are counted in
+ * O(log m), m being the number of distinct deadlines, without visiting their buckets.
+ * Note 1: for deadlines spread over distinct milliseconds, each one pays a bucket, prefer DeadlineBTreeManager.
+ * Note 2: the handlers run on a pool of daemon threads, released by close.
+ */
+public class DeadlineBucketManager implements DeadlineQueryEngine, AutoCloseable {
+    /**
+     * This is 278 years from epoch in milliseconds
+     */
+    private final long _maximumDeadline = 2L << 43;
+
+    /**
+     * Lock that allows multiple reads at the same time
+     */
+    private final ReentrantReadWriteLock _readWriteLock = new ReentrantReadWriteLock();
+
+    /**
+     * Readlock shortcut for convenience
+     */
+    private final Lock _readLock = _readWriteLock.readLock();
+
+    /**
+     * Writelock shortcut for convenience
+     */
+    private final Lock _writeLock = _readWriteLock.writeLock();
+
+    /**
+     * Number of bits reserves for a unique ID at a given date
+     * 2^20 = 1 million different entries allowed for a given date
+     */
+    private final long _deadlineUniqueIdBits = 20;
+
+    /**
+     * Used to run the callback methods
+     */
+    private final DeadlineHandlerExecutor _handlerExecutor;
+
+    /**
+     * Set by close, the polls then fire nothing. Guarded by the write lock.
+     */
+    private boolean _closed;
+
+    /**
+     * The live Ids of each deadline, keyed by the deadline in milliseconds. A bucket is removed once empty.
+     */
+    private final TreeMap<Long, Bucket> _buckets;
+
+    /**
+     * The live count of each bucket, keyed by the same deadline
+     */
+    private final LongCountTree _liveCounts;
+
+    /**
+     * Number of registered deadlines, over all the buckets
+     */
+    private int _size;
+
+    /**
+     * New instance of this class
+     */
+    public DeadlineBucketManager() {
+        this(10000);
+    }
+
+    /**
+     * New instance of this class
+     * @param handlersTimeOut The timeout for handlers requests when polling. Threads will be killed silently after that time.
+     */
+    public DeadlineBucketManager(long handlersTimeOut) {
+        _buckets = new TreeMap<>();
+        _liveCounts = new LongCountTree();
+        _handlerExecutor = new DeadlineHandlerExecutor(handlersTimeOut);
+    }
+
+    /**
+     * returns the lowerbound for this deadline and its 20 bits of unique IDs
+     * @param timeFromEpoch the original time from Epoch
+     * @return the time from Epoch, moved '_deadlineUniqueIdBits' bits to the left
+     */
+    private long getDeadLineLowerBoundBitwise(long timeFromEpoch) throws IllegalArgumentException {
+        if(timeFromEpoch > _maximumDeadline)
+            throw new IllegalArgumentException("The deadline you sent it more than 34 years in the future");
+
+        return timeFromEpoch << _deadlineUniqueIdBits;
+    }
+
+    /**
+     * Request a new deadline be added to the engine.  The deadline is in millis offset from
+     * unix epoch. https://en.wikipedia.org/wiki/Unix_time
+     * The engine will raise an event whenever a deadline (usually now in millis) supplied in the poll method
+     * exceeds the request deadline.
+     * Note 1: Logarithmic running time ( O(log m) ), m being the number of distinct deadlines, then sets a bit and
+     * updates the live count
+     * @param deadlineMs the millis
+     * @return An identifier for the scheduled deadline.
+     * @throws IllegalArgumentException if the deadline is too far, or already holds 2^20 IDs
+     */
+    public long schedule(long deadlineMs) {
+        var bitwiseDeadLineLowerBound = getDeadLineLowerBoundBitwise(deadlineMs);
+
+        _writeLock.lock();
+        try {
+            Bucket bucket = _buckets.computeIfAbsent(deadlineMs, ms -> new Bucket());
+            if (bucket._nextId == 1 << _deadlineUniqueIdBits)
+                throw new IllegalArgumentException("All the IDs of the deadline " + deadlineMs + " are used");
+
+            int id = bucket.add();
+            _liveCounts.add(deadlineMs, 1);
+            _size++;
+            return bitwiseDeadLineLowerBound | id;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the scheduled event using the identifier returned when the deadline was scheduled.
+     * Note 1: Logarithmic running time ( O(log m) ) to find the bucket, then clears a bit and updates the live count
+     * @param requestId identifier to cancel.
+     * @return true if canceled.
+     */
+    public boolean cancel(long requestId) {
+        long deadlineMs = requestId >> _deadlineUniqueIdBits;
+        int id = (int) (requestId & ((1 << _deadlineUniqueIdBits) - 1));
+
+        _writeLock.lock();
+        try {
+            Bucket bucket = _buckets.get(deadlineMs);
+            if (bucket == null || !bucket.remove(id))
+                return false;
+
+            _liveCounts.add(deadlineMs, -1);
+            _size--;
+            if (bucket._live == 0)
+                _buckets.remove(deadlineMs);
+            return true;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Supplies a deadline in millis to check against scheduled deadlines.  If any deadlines are triggered the
+     * supplied handler is called with the identifier of the expired deadline.
+     * To avoid a system flood and manage how many expired events we can handle we also pass in the maximum number of
+     * expired deadlines to fire.  Those expired deadlines that weren't raised will be available in the next poll.
+     * There is no need for the triggered deadlines to fire in order.
+     * Note 1: O(log m) per expired bucket, whose deadlines are fired by iterating its set bits
+     * Note 2: Will run in parallel the execution of multiple handler. Won't throw exceptions, see timedOutHandlers.
+     * Note 3: fires nothing once closed, the expired deadlines staying registered.
+     * @param nowMs   time in millis since epoch to check deadlines against.
+     * @param handler to call with identifier of expired deadlines.
+     * @param maxPoll count of maximum number of expired deadlines to process.
+     * @return number of expired deadlines that fired successfully, 0 once closed.
+     */
+    public int poll(long nowMs, Consumer<Long> handler, int maxPoll) {
+        getDeadLineLowerBoundBitwise(nowMs + 1);
+
+        _writeLock.lock();
+        try {
+            if (_closed)
+                return 0;
+
+            int fired = 0;
+            Map.Entry<Long, Bucket> first;
+            while (fired < maxPoll && (first = _buckets.firstEntry()) != null && first.getKey() <= nowMs) {
+                Bucket bucket = first.getValue();
+                int drained = bucket.drain(getDeadLineLowerBoundBitwise(first.getKey()), maxPoll - fired,
+                        element -> _handlerExecutor.run(handler, element));
+                _liveCounts.add(first.getKey(), -drained);
+                fired += drained;
+
+                if (bucket._live == 0)
+                    _buckets.pollFirstEntry();
+            }
+
+            _size -= fired;
+            return fired;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Logarithmic running time ( O(log m) ), the first bucket of the tree
+     * @return the earliest registered deadline in millis since epoch, Long.MAX_VALUE if there is none.
+     */
+    public long nextDeadline() {
+        _readLock.lock();
+        try {
+            return _buckets.isEmpty() ? Long.MAX_VALUE : _buckets.firstKey();
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the deadlines a poll would fire at a given time, minus one millisecond.
+     * Note 1: Logarithmic running time ( O(log m) ), a descent of the live counts summing those on the left of the path
+     * @param ms time in millis since epoch.
+     * @return the number of registered deadlines strictly before that time.
+     */
+    public int countExpiringBefore(long ms) {
+        _readLock.lock();
+        try {
+            return _liveCounts.countBelow(ms);
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * Same selection as poll, but the expired deadlines stay registered and the handler runs on the calling thread.
+     * Note 1: O(maxPeek), iterating the set bits of the buckets from the first one
+     * @param nowMs time in millis since epoch to check deadlines against.
+     * @param handler to call with identifier of expired deadlines.
+     * @param maxPeek count of maximum number of expired deadlines to pass.
+     * @return number of expired deadlines passed to the handler.
+     */
+    public int peekExpired(long nowMs, LongConsumer handler, int maxPeek) {
+        getDeadLineLowerBoundBitwise(nowMs + 1);
+
+        _readLock.lock();
+        try {
+            int peeked = 0;
+            NavigableMap<Long, Bucket> expired = _buckets.headMap(nowMs, true);
+            for (Map.Entry<Long, Bucket> entry : expired.entrySet()) {
+                if (peeked >= maxPeek)
+                    break;
+                peeked += entry.getValue().peek(getDeadLineLowerBoundBitwise(entry.getKey()), maxPeek - peeked, handler);
+            }
+            return peeked;
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of handlers interrupted for running longer than the handlers timeout
+     */
+    public long timedOutHandlers() {
+        return _handlerExecutor.timedOutHandlers();
+    }
+
+    /**
+     * Graceful shutdown of the handlers pool: the running handlers get their timeout to finish.
+     * The deadlines stay registered, but can no longer be polled.
+     */
+    public void close() {
+        // Under the lock, so a poll in progress hands its handlers over before the pool stops accepting them
+        _writeLock.lock();
+        try {
+            _closed = true;
+        } finally {
+            _writeLock.unlock();
+        }
+        _handlerExecutor.close();
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the number of registered deadlines.
+     */
+    public int size() {
+        _readLock.lock();
+        try {
+            return _size;
+        } finally {
+            _readLock.unlock();
+        }
+    }
+
+    /**
+     * The live Ids of a millisecond, one bit each.
+     * Technical: Ids are allocated in increasing order, so the live ones lie between the first set bit and _nextId.
+     * _words[0] holds the Ids from 64 * _firstWord, the words below being dropped once they hold no live Id.
+     */
+    private static final class Bucket {
+        private long[] _words = new long[1];
+
+        /**
+         * Number of words in use in _words
+         */
+        private int _wordCount;
+
+        /**
+         * Index, in 64 Ids words, of the Ids held by _words[0]
+         */
+        private int _firstWord;
+
+        /**
+         * The Id the next deadline of this millisecond will get
+         */
+        private int _nextId;
+
+        /**
+         * Number of set bits
+         */
+        private int _live;
+
+        /**
+         * @return the Id of the new deadline
+         */
+        int add() {
+            int id = _nextId++;
+            int word = (id >>> 6) - _firstWord;
+            if (word == _words.length) {
+                long[] words = new long[_words.length << 1];
+                System.arraycopy(_words, 0, words, 0, _wordCount);
+                _words = words;
+            }
+
+            _wordCount = Math.max(_wordCount, word + 1);
+            _words[word] |= 1L << id;
+            _live++;
+            return id;
+        }
+
+        /**
+         * @return true if the Id was live
+         */
+        boolean remove(int id) {
+            int word = (id >>> 6) - _firstWord;
+            if (word < 0 || word >= _wordCount || (_words[word] & (1L << id)) == 0)
+                return false;
+
+            _words[word] &= ~(1L << id);
+            _live--;
+            if (word == 0)
+                dropEmptyWords();
+            return true;
+        }
+
+        /**
+         * Clears up to max live Ids, from the lowest one, passing each one to the handler.
+         * @param deadline the deadline bits of the Ids
+         * @return the number of Ids cleared
+         */
+        int drain(long deadline, int max, LongConsumer handler) {
+            int drained = 0;
+            for (int word = 0; word < _wordCount && drained < max; word++) {
+                long bits = _words[word];
+                long base = deadline | ((long) (_firstWord + word) << 6);
+                while (bits != 0 && drained < max) {
+                    handler.accept(base | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                    drained++;
+                }
+                _words[word] = bits;
+            }
+
+            _live -= drained;
+            dropEmptyWords();
+            return drained;
+        }
+
+        /**
+         * Passes up to max live Ids, from the lowest one, to the handler.
+         * @param deadline the deadline bits of the Ids
+         * @return the number of Ids passed
+         */
+        int peek(long deadline, int max, LongConsumer handler) {
+            int peeked = 0;
+            for (int word = 0; word < _wordCount && peeked < max; word++) {
+                long bits = _words[word];
+                long base = deadline | ((long) (_firstWord + word) << 6);
+                while (bits != 0 && peeked < max) {
+                    handler.accept(base | Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                    peeked++;
+                }
+            }
+            return peeked;
+        }
+
+        /**
+         * Shifts the words down to the first one holding a live Id
+         */
+        private void dropEmptyWords() {
+            int empty = 0;
+            while (empty < _wordCount && _words[empty] == 0)
+                empty++;
+            if (empty == 0)
+                return;
+
+            int remaining = _wordCount - empty;
+            if (remaining * 4 <= _words.length) {
+                // Gives the memory of a drained burst back, keeping room to grow again
+                long[] words = new long[Math.max(1, _words.length >> 1)];
+                System.arraycopy(_words, empty, words, 0, remaining);
+                _words = words;
+            } else {
+                System.arraycopy(_words, empty, _words, 0, remaining);
+                Arrays.fill(_words, remaining, _wordCount, 0L);
+            }
+            _firstWord += empty;
+            _wordCount = remaining;
+        }
+    }
+}
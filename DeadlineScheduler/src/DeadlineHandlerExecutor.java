@@ -0,0 +1,102 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs the handlers of the fired deadlines in parallel, interrupting those still running after a timeout.
+ * Technical: each handler gets a timeout task, cancelled (and removed from the queue) as soon as the handler returns,
+ * so only the handlers actually interrupted are counted as timed out. The timeouts run on their own thread, so
+ * handlers busy on every pool thread cannot hold them back.
+ * Note 1: the timeout counts from the poll, a handler still queued when it elapses is cancelled before running.
+ * The threads are daemons, the pools are released by close.
+ */
+final class DeadlineHandlerExecutor implements AutoCloseable {
+
+    /**
+     * Runs the handlers, a thread per core
+     */
+    private final ExecutorService _executorService;
+
+    /**
+     * Runs the timeouts of the handlers
+     */
+    private final ScheduledThreadPoolExecutor _timeoutService;
+
+    /**
+     * Acceptable timeout in milliseconds for the handlers to finish
+     */
+    private final long _handlersTimeOut;
+
+    /**
+     * Number of handlers interrupted for running longer than _handlersTimeOut
+     */
+    private final AtomicLong _timedOutHandlers = new AtomicLong();
+
+    /**
+     * New instance of this class, with a thread per core
+     * @param handlersTimeOut The timeout for handlers in milliseconds. Threads will be interrupted after that time.
+     */
+    DeadlineHandlerExecutor(long handlersTimeOut) {
+        _executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemon("deadline-handler"));
+        _timeoutService = new ScheduledThreadPoolExecutor(1, daemon("deadline-handler-timeout"));
+        _timeoutService.setRemoveOnCancelPolicy(true);
+        _handlersTimeOut = handlersTimeOut;
+    }
+
+    /**
+     * Runs a handler on the pool. It will be interrupted if still running after the timeout.
+     * Won't throw, the exceptions of the handler are ignored.
+     * @param handler The method to execute
+     * @param element The long parameter for the handler
+     */
+    void run(Consumer<Long> handler, long element) {
+        FutureTask<Void> handlerTask = new FutureTask<>(() -> handler.accept(element), null);
+
+        // cancel only succeeds on a handler which did not finish, the others are not reported
+        ScheduledFuture<?> timeoutTask = _timeoutService.schedule(() -> {
+            if (handlerTask.cancel(true))
+                _timedOutHandlers.incrementAndGet();
+        }, _handlersTimeOut, TimeUnit.MILLISECONDS);
+
+        _executorService.execute(() -> {
+            handlerTask.run();
+            timeoutTask.cancel(false);
+        });
+    }
+
+    /**
+     * @return the number of handlers interrupted for running longer than the timeout
+     */
+    long timedOutHandlers() {
+        return _timedOutHandlers.get();
+    }
+
+    /**
+     * Graceful shutdown of the pools: the running handlers get their timeout to finish, then are interrupted.
+     */
+    public void close() {
+        _executorService.shutdown();
+        try {
+            if (!_executorService.awaitTermination(_handlersTimeOut, TimeUnit.MILLISECONDS))
+                _executorService.shutdownNow();
+        } catch (InterruptedException e) {
+            _executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        _timeoutService.shutdownNow();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
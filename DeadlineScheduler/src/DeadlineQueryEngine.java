@@ -0,0 +1,31 @@
+import java.util.function.LongConsumer;
+
+/**
+ * A DeadlineEngine that can also be inspected without firing anything, e.g. to size a polling loop and decide how
+ * long to sleep until the next poll.
+ * Note 1: nextDeadline and countExpiringBefore run in O(log n) or better, n being the number of registered deadlines,
+ * and peekExpired in O(log n + maxPeek). They are safe to call while other threads schedule and cancel.
+ */
+public interface DeadlineQueryEngine extends DeadlineEngine {
+    /**
+     * @return the earliest registered deadline in millis since epoch, Long.MAX_VALUE if there is none.
+     */
+    long nextDeadline();
+
+    /**
+     * Counts the deadlines a poll would fire at a given time, minus one millisecond.
+     * @param ms time in millis since epoch.
+     * @return the number of registered deadlines strictly before that time.
+     */
+    int countExpiringBefore(long ms);
+
+    /**
+     * Same selection as poll, but the expired deadlines stay registered and the handler runs on the calling thread.
+     * The identifiers are passed from the earliest deadline.
+     * @param nowMs time in millis since epoch to check deadlines against.
+     * @param handler to call with identifier of expired deadlines.
+     * @param maxPeek count of maximum number of expired deadlines to pass.
+     * @return number of expired deadlines passed to the handler.
+     */
+    int peekExpired(long nowMs, LongConsumer handler, int maxPeek);
+}
@@ -0,0 +1,561 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * A sorted set of primitive longs, stored as a B+tree.
+ * Technical: the keys live in the leaves, sorted long arrays of up to 128 entries chained to their neighbours, so
+ * range scans read contiguous memory. The internal nodes hold up to 64 children and their separator keys: all the keys
+ * of children[i] are lower than keys[i], which is lower than or equal to all the keys of children[i + 1].
+ * A leaf costs 8 bytes per key plus its half empty part at worst, against about 56 bytes per key for a TreeSet of
+ * Long (the TreeMap.Entry plus the boxed Long).
+ * The branches also count the keys under each of their children, so the rank of a key (the number of keys below it)
+ * is a single descent summing the counts on the left of the path.
+ * Note 1: appending past the last key leaves the full leaf as it is, so increasing keys fill their leaves completely.
+ * Note 2: not thread safe, the callers lock around it.
+ */
+final class LongBPlusTree {
+
+    /**
+     * Maximum number of keys of a leaf
+     */
+    private static final int _leafCapacity = 128;
+
+    /**
+     * Maximum number of children of an internal node
+     */
+    private static final int _branchCapacity = 64;
+
+    private Node _root;
+
+    /**
+     * The leftmost leaf. Merges always keep the left node, so it stays the same instance.
+     */
+    private final Leaf _head;
+
+    private int _size;
+
+    /**
+     * Separator promoted by the last split, see insert
+     */
+    private long _promotedKey;
+
+    /**
+     * Whether the last insert added the key
+     */
+    private boolean _added;
+
+    /**
+     * New empty instance of this class
+     */
+    LongBPlusTree() {
+        _head = new Leaf();
+        _root = _head;
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the number of keys
+     */
+    int size() {
+        return _size;
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * O(log n)
+     */
+    boolean contains(long key) {
+        Leaf leaf = findLeaf(key);
+        return binarySearch(leaf._keys, leaf._size, key) >= 0;
+    }
+
+    /**
+     * O(log n)
+     * @return true if the key was not in the tree
+     */
+    boolean add(long key) {
+        _added = false;
+        Node right = insert(_root, key);
+        if (right != null) {
+            Branch root = new Branch();
+            root._children[0] = _root;
+            root._children[1] = right;
+            root._keys[0] = _promotedKey;
+            root._counts[0] = count(_root);
+            root._counts[1] = count(right);
+            root._size = 2;
+            _root = root;
+        }
+
+        if (_added)
+            _size++;
+        return _added;
+    }
+
+    /**
+     * O(log n)
+     * @return true if the key was in the tree
+     */
+    boolean remove(long key) {
+        if (!delete(_root, key))
+            return false;
+
+        _size--;
+        collapseRoot();
+        return true;
+    }
+
+    /**
+     * 0(1) time complexity
+     * @return the lowest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    long first() {
+        if (_size == 0)
+            throw new NoSuchElementException();
+        return _head._keys[0];
+    }
+
+    /**
+     * Removes and returns the lowest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    long pollFirst() {
+        long first = first();
+        remove(first);
+        return first;
+    }
+
+    /**
+     * O(log n)
+     * @param key the upper bound, exclusive
+     * @param absent the value to return when no key is lower
+     * @return the greatest key strictly lower than the given one, or absent
+     */
+    long lower(long key, long absent) {
+        if (key == Long.MIN_VALUE)
+            return absent;
+
+        // All the keys of the leaves before are lower than the separator we followed, so lower than the key
+        Leaf leaf = findLeaf(key - 1);
+        int index = binarySearch(leaf._keys, leaf._size, key - 1);
+        index = index >= 0 ? index : -index - 2;
+        if (index >= 0)
+            return leaf._keys[index];
+        return leaf._previous == null ? absent : leaf._previous._keys[leaf._previous._size - 1];
+    }
+
+    /**
+     * Removes the lowest keys strictly below a bound, in ascending order.
+     * Note 1: O(log n) per leaf emptied rather than per key, the keys being taken from the leftmost leaf in bulk.
+     * @param bound the upper bound, exclusive
+     * @param maximum the maximum number of keys to remove
+     * @param consumer receives the removed keys
+     * @return the number of keys removed
+     */
+    int pollBelow(long bound, int maximum, LongConsumer consumer) {
+        int polled = 0;
+        while (polled < maximum && _size > 0) {
+            int count = 0;
+            while (count < _head._size && count < maximum - polled && _head._keys[count] < bound)
+                consumer.accept(_head._keys[count++]);
+            if (count == 0)
+                break;
+
+            System.arraycopy(_head._keys, count, _head._keys, 0, _head._size - count);
+            _head._size -= count;
+            _size -= count;
+            polled += count;
+
+            rebalanceLeftmostPath(_root, count);
+            collapseRoot();
+        }
+        return polled;
+    }
+
+    /**
+     * O(log n), a descent summing the counts of the children on the left of the path
+     * @param bound the upper bound, exclusive
+     * @return the number of keys strictly below the bound
+     */
+    int countBelow(long bound) {
+        int rank = 0;
+        Node node = _root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            // The children on the left of the bound's one only hold keys lower than its separator, so than the bound
+            int index = childIndex(branch, bound);
+            for (int i = 0; i < index; i++)
+                rank += branch._counts[i];
+            node = branch._children[index];
+        }
+
+        Leaf leaf = (Leaf) node;
+        int index = binarySearch(leaf._keys, leaf._size, bound);
+        return rank + (index >= 0 ? index : -index - 1);
+    }
+
+    /**
+     * Passes the lowest keys strictly below a bound, in ascending order, without removing them.
+     * @param bound the upper bound, exclusive
+     * @param maximum the maximum number of keys to pass
+     * @param consumer receives the keys
+     * @return the number of keys passed
+     */
+    int peekBelow(long bound, int maximum, LongConsumer consumer) {
+        int peeked = 0;
+        for (Leaf leaf = _head; leaf != null; leaf = leaf._next) {
+            for (int index = 0; index < leaf._size; index++) {
+                if (peeked == maximum || leaf._keys[index] >= bound)
+                    return peeked;
+                consumer.accept(leaf._keys[index]);
+                peeked++;
+            }
+        }
+        return peeked;
+    }
+
+    /**
+     * Walks the leaves from the first key greater than or equal to the lower bound.
+     * @param fromInclusive the lower bound
+     * @param toExclusive the upper bound
+     * @param consumer receives the keys in ascending order
+     */
+    void forEachInRange(long fromInclusive, long toExclusive, LongConsumer consumer) {
+        Leaf leaf = findLeaf(fromInclusive);
+        int index = binarySearch(leaf._keys, leaf._size, fromInclusive);
+        index = index >= 0 ? index : -index - 1;
+        for (; leaf != null; leaf = leaf._next, index = 0) {
+            for (; index < leaf._size; index++) {
+                if (leaf._keys[index] >= toExclusive)
+                    return;
+                consumer.accept(leaf._keys[index]);
+            }
+        }
+    }
+
+    /**
+     * Removes every key
+     */
+    void clear() {
+        _head._size = 0;
+        _head._next = null;
+        _root = _head;
+        _size = 0;
+    }
+
+    /**
+     * Descends to the leaf where the key is, or would be
+     */
+    private Leaf findLeaf(long key) {
+        Node node = _root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            node = branch._children[childIndex(branch, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Adds the key under the node.
+     * @return the new right sibling if the node split, its separator being in _promotedKey
+     */
+    private Node insert(Node node, long key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = binarySearch(leaf._keys, leaf._size, key);
+            if (index >= 0)
+                return null;
+
+            index = -index - 1;
+            System.arraycopy(leaf._keys, index, leaf._keys, index + 1, leaf._size - index);
+            leaf._keys[index] = key;
+            leaf._size++;
+            _added = true;
+            return leaf._size > _leafCapacity ? splitLeaf(leaf, index == leaf._size - 1 && leaf._next == null) : null;
+        }
+
+        Branch branch = (Branch) node;
+        int index = childIndex(branch, key);
+        Node right = insert(branch._children[index], key);
+        if (_added)
+            branch._counts[index]++;
+        if (right == null)
+            return null;
+
+        System.arraycopy(branch._keys, index, branch._keys, index + 1, branch._size - 1 - index);
+        System.arraycopy(branch._children, index + 1, branch._children, index + 2, branch._size - 1 - index);
+        System.arraycopy(branch._counts, index + 1, branch._counts, index + 2, branch._size - 1 - index);
+        branch._keys[index] = _promotedKey;
+        branch._children[index + 1] = right;
+        branch._counts[index + 1] = count(right);
+        branch._counts[index] -= branch._counts[index + 1];
+        branch._size++;
+        return branch._size > _branchCapacity ? splitBranch(branch, index + 1 == branch._size - 1) : null;
+    }
+
+    /**
+     * @param appended whether the overflowing key was appended to the last leaf, in which case the leaf stays full
+     * and only that key moves, the next ones following it
+     */
+    private Leaf splitLeaf(Leaf leaf, boolean appended) {
+        int leftSize = appended ? leaf._size - 1 : leaf._size / 2;
+        Leaf right = new Leaf();
+        right._size = leaf._size - leftSize;
+        System.arraycopy(leaf._keys, leftSize, right._keys, 0, right._size);
+        leaf._size = leftSize;
+
+        right._next = leaf._next;
+        right._previous = leaf;
+        if (leaf._next != null)
+            leaf._next._previous = right;
+        leaf._next = right;
+
+        _promotedKey = right._keys[0];
+        return right;
+    }
+
+    /**
+     * @param appended whether the overflowing child was appended, see splitLeaf. The new branch still gets two
+     * children, as a branch left with a single child could not rebalance it.
+     */
+    private Branch splitBranch(Branch branch, boolean appended) {
+        int leftSize = appended ? branch._size - 2 : branch._size / 2;
+        Branch right = new Branch();
+        right._size = branch._size - leftSize;
+        System.arraycopy(branch._children, leftSize, right._children, 0, right._size);
+        System.arraycopy(branch._counts, leftSize, right._counts, 0, right._size);
+        System.arraycopy(branch._keys, leftSize, right._keys, 0, right._size - 1);
+        _promotedKey = branch._keys[leftSize - 1];
+
+        for (int i = leftSize; i < branch._size; i++)
+            branch._children[i] = null;
+        branch._size = leftSize;
+        return right;
+    }
+
+    /**
+     * Removes the key under the node, then rebalances the child it was removed from if it underflows.
+     * @return true if the key was found
+     */
+    private boolean delete(Node node, long key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int index = binarySearch(leaf._keys, leaf._size, key);
+            if (index < 0)
+                return false;
+
+            System.arraycopy(leaf._keys, index + 1, leaf._keys, index, leaf._size - index - 1);
+            leaf._size--;
+            return true;
+        }
+
+        Branch branch = (Branch) node;
+        int index = childIndex(branch, key);
+        if (!delete(branch._children[index], key))
+            return false;
+
+        branch._counts[index]--;
+        rebalance(branch, index);
+        return true;
+    }
+
+    /**
+     * Updates the counts of the leftmost path and rebalances the first child of each of its nodes, after keys were
+     * taken from the head leaf
+     */
+    private void rebalanceLeftmostPath(Node node, int removed) {
+        if (node instanceof Leaf)
+            return;
+
+        Branch branch = (Branch) node;
+        branch._counts[0] -= removed;
+        rebalanceLeftmostPath(branch._children[0], removed);
+        rebalance(branch, 0);
+    }
+
+    /**
+     * Brings a child back to half full, by taking children or keys from a sibling, or merging with it when the two
+     * would fit in one node.
+     */
+    private void rebalance(Branch parent, int index) {
+        Node child = parent._children[index];
+        int minimum = child instanceof Leaf ? _leafCapacity / 2 : _branchCapacity / 2;
+        if (child._size >= minimum || parent._size < 2)
+            return;
+
+        // The pair is the child and its left sibling, or its right sibling for the first child
+        int left = index > 0 ? index - 1 : index;
+        if (parent._children[left]._size + parent._children[left + 1]._size >= 2 * minimum)
+            redistribute(parent, left);
+        else
+            merge(parent, left);
+    }
+
+    /**
+     * Shares the content of children[index] and children[index + 1] evenly between them
+     */
+    private void redistribute(Branch parent, int index) {
+        if (parent._children[index] instanceof Leaf) {
+            Leaf left = (Leaf) parent._children[index];
+            Leaf right = (Leaf) parent._children[index + 1];
+            int leftSize = (left._size + right._size) / 2;
+            if (left._size < leftSize) {
+                int moved = leftSize - left._size;
+                System.arraycopy(right._keys, 0, left._keys, left._size, moved);
+                System.arraycopy(right._keys, moved, right._keys, 0, right._size - moved);
+                right._size -= moved;
+            } else {
+                int moved = left._size - leftSize;
+                System.arraycopy(right._keys, 0, right._keys, moved, right._size);
+                System.arraycopy(left._keys, leftSize, right._keys, 0, moved);
+                right._size += moved;
+            }
+            left._size = leftSize;
+            parent._keys[index] = right._keys[0];
+            parent._counts[index] = left._size;
+            parent._counts[index + 1] = right._size;
+            return;
+        }
+
+        // Rare enough to go through a temporary copy: the separator comes down between the two sets of keys
+        Branch left = (Branch) parent._children[index];
+        Branch right = (Branch) parent._children[index + 1];
+        int total = left._size + right._size;
+        long[] keys = new long[total - 1];
+        Node[] children = new Node[total];
+        int[] counts = new int[total];
+        System.arraycopy(left._keys, 0, keys, 0, left._size - 1);
+        keys[left._size - 1] = parent._keys[index];
+        System.arraycopy(right._keys, 0, keys, left._size, right._size - 1);
+        System.arraycopy(left._children, 0, children, 0, left._size);
+        System.arraycopy(right._children, 0, children, left._size, right._size);
+        System.arraycopy(left._counts, 0, counts, 0, left._size);
+        System.arraycopy(right._counts, 0, counts, left._size, right._size);
+
+        int leftSize = total / 2;
+        Arrays.fill(left._children, null);
+        Arrays.fill(right._children, null);
+        System.arraycopy(children, 0, left._children, 0, leftSize);
+        System.arraycopy(counts, 0, left._counts, 0, leftSize);
+        System.arraycopy(keys, 0, left._keys, 0, leftSize - 1);
+        parent._keys[index] = keys[leftSize - 1];
+        System.arraycopy(children, leftSize, right._children, 0, total - leftSize);
+        System.arraycopy(counts, leftSize, right._counts, 0, total - leftSize);
+        System.arraycopy(keys, leftSize, right._keys, 0, total - leftSize - 1);
+        left._size = leftSize;
+        right._size = total - leftSize;
+        parent._counts[index] = count(left);
+        parent._counts[index + 1] = count(right);
+    }
+
+    /**
+     * Moves the content of children[index + 1] into children[index], and removes it from the parent
+     */
+    private void merge(Branch parent, int index) {
+        if (parent._children[index] instanceof Leaf) {
+            Leaf left = (Leaf) parent._children[index];
+            Leaf right = (Leaf) parent._children[index + 1];
+            System.arraycopy(right._keys, 0, left._keys, left._size, right._size);
+            left._size += right._size;
+            left._next = right._next;
+            if (right._next != null)
+                right._next._previous = left;
+        } else {
+            Branch left = (Branch) parent._children[index];
+            Branch right = (Branch) parent._children[index + 1];
+            left._keys[left._size - 1] = parent._keys[index];
+            System.arraycopy(right._keys, 0, left._keys, left._size, right._size - 1);
+            System.arraycopy(right._children, 0, left._children, left._size, right._size);
+            System.arraycopy(right._counts, 0, left._counts, left._size, right._size);
+            left._size += right._size;
+        }
+
+        parent._counts[index] += parent._counts[index + 1];
+        System.arraycopy(parent._keys, index + 1, parent._keys, index, parent._size - index - 2);
+        System.arraycopy(parent._children, index + 2, parent._children, index + 1, parent._size - index - 2);
+        System.arraycopy(parent._counts, index + 2, parent._counts, index + 1, parent._size - index - 2);
+        parent._size--;
+        parent._children[parent._size] = null;
+    }
+
+    /**
+     * A root left with a single child is replaced by it, so the tree gets shorter
+     */
+    private void collapseRoot() {
+        while (_root instanceof Branch && _root._size == 1)
+            _root = ((Branch) _root)._children[0];
+    }
+
+    /**
+     * @return the number of keys under the node. O(children) for a branch, only used when nodes split or move.
+     */
+    private static int count(Node node) {
+        if (node instanceof Leaf)
+            return node._size;
+
+        Branch branch = (Branch) node;
+        int count = 0;
+        for (int i = 0; i < branch._size; i++)
+            count += branch._counts[i];
+        return count;
+    }
+
+    /**
+     * @return the index of the child whose range holds the key: the number of separators lower than or equal to it
+     */
+    private static int childIndex(Branch branch, long key) {
+        int index = binarySearch(branch._keys, branch._size - 1, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Same contract as Arrays.binarySearch, over the first keys of the array
+     */
+    private static int binarySearch(long[] keys, int size, long key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = keys[middle];
+            if (middleKey < key)
+                low = middle + 1;
+            else if (middleKey > key)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    private abstract static class Node {
+        /**
+         * Number of keys of a leaf, number of children of a branch
+         */
+        int _size;
+    }
+
+    private static final class Leaf extends Node {
+        /**
+         * One spare slot, so an insert can overflow before the split
+         */
+        private final long[] _keys = new long[_leafCapacity + 1];
+
+        private Leaf _previous;
+        private Leaf _next;
+    }
+
+    private static final class Branch extends Node {
+        private final long[] _keys = new long[_branchCapacity];
+        private final Node[] _children = new Node[_branchCapacity + 1];
+
+        /**
+         * Number of keys under each child
+         */
+        private final int[] _counts = new int[_branchCapacity + 1];
+    }
+}
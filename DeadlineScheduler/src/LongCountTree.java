@@ -0,0 +1,200 @@
+/**
+ * Sorted primitive long keys, each with a positive count, answering the sum of the counts below a bound.
+ * Technical: an AVL tree whose nodes also hold the sum of the counts of their subtree, so the sum below a bound is a
+ * single descent adding the left subtrees and the keys it passes, like the rank of LongBPlusTree but weighted.
+ * The balance keeps the height under 1.44 log m for m keys, whatever the order they come in.
+ * A key is removed once its count drops to 0.
+ * Note 1: not thread safe, the callers lock around it.
+ */
+final class LongCountTree {
+
+    private Node _root;
+
+    /**
+     * Number of keys
+     */
+    private int _size;
+
+    /**
+     * 0(1) time complexity
+     * @return the number of keys
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * O(log m)
+     * @return the count of the key, 0 if absent
+     */
+    int count(long key) {
+        Node node = _root;
+        while (node != null) {
+            if (key < node._key)
+                node = node._left;
+            else if (key > node._key)
+                node = node._right;
+            else
+                return node._count;
+        }
+        return 0;
+    }
+
+    /**
+     * Adds to the count of a key, inserting it if absent and removing it once its count reaches 0.
+     * Note 1: O(log m), the sums being updated on the way back up from the key
+     * @param key the key to update
+     * @param delta the number to add to its count
+     * @throws IllegalArgumentException if the count of the key would become negative
+     */
+    void add(long key, int delta) {
+        _root = add(_root, key, delta);
+    }
+
+    /**
+     * O(log m), a descent summing the counts on the left of the path
+     * @param bound the upper bound, exclusive
+     * @return the sum of the counts of the keys strictly below the bound
+     */
+    int countBelow(long bound) {
+        int count = 0;
+        Node node = _root;
+        while (node != null) {
+            if (node._key < bound) {
+                count += sum(node._left) + node._count;
+                node = node._right;
+            } else {
+                node = node._left;
+            }
+        }
+        return count;
+    }
+
+    private Node add(Node node, long key, int delta) {
+        if (node == null) {
+            if (delta < 0)
+                throw new IllegalArgumentException("The count of " + key + " cannot become negative");
+            if (delta == 0)
+                return null;
+
+            _size++;
+            return new Node(key, delta);
+        }
+
+        if (key < node._key) {
+            node._left = add(node._left, key, delta);
+        } else if (key > node._key) {
+            node._right = add(node._right, key, delta);
+        } else {
+            if (node._count + delta < 0)
+                throw new IllegalArgumentException("The count of " + key + " cannot become negative");
+
+            node._count += delta;
+            if (node._count == 0) {
+                _size--;
+                return unlink(node);
+            }
+        }
+        return balance(node);
+    }
+
+    /**
+     * @return the subtree replacing the node, its successor taking its place if it has two children
+     */
+    private Node unlink(Node node) {
+        if (node._left == null)
+            return node._right;
+        if (node._right == null)
+            return node._left;
+
+        Node successor = node._right;
+        while (successor._left != null)
+            successor = successor._left;
+
+        successor._right = removeFirst(node._right);
+        successor._left = node._left;
+        return balance(successor);
+    }
+
+    private Node removeFirst(Node node) {
+        if (node._left == null)
+            return node._right;
+
+        node._left = removeFirst(node._left);
+        return balance(node);
+    }
+
+    /**
+     * Updates the height and sum of the node, then rotates it if one side got 2 levels deeper than the other
+     * @return the root of the balanced subtree
+     */
+    private Node balance(Node node) {
+        update(node);
+        int factor = height(node._left) - height(node._right);
+        if (factor > 1) {
+            if (height(node._left._left) < height(node._left._right))
+                node._left = rotateLeft(node._left);
+            return rotateRight(node);
+        }
+        if (factor < -1) {
+            if (height(node._right._right) < height(node._right._left))
+                node._right = rotateRight(node._right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node rotateRight(Node node) {
+        Node left = node._left;
+        node._left = left._right;
+        left._right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node right = node._right;
+        node._right = right._left;
+        right._left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        node._height = 1 + Math.max(height(node._left), height(node._right));
+        node._sum = node._count + sum(node._left) + sum(node._right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node._height;
+    }
+
+    private static int sum(Node node) {
+        return node == null ? 0 : node._sum;
+    }
+
+    private static final class Node {
+        private final long _key;
+
+        private int _count;
+
+        /**
+         * Sum of the counts of this subtree
+         */
+        private int _sum;
+
+        private int _height = 1;
+
+        private Node _left;
+
+        private Node _right;
+
+        Node(long key, int count) {
+            _key = key;
+            _count = count;
+            _sum = count;
+        }
+    }
+}
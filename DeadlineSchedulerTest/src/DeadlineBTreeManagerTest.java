@@ -0,0 +1,310 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class DeadlineBTreeManagerTest {
+
+    private DeadlineBTreeManager _dm = new DeadlineBTreeManager();
+
+    /**
+     * Handler doing nothing
+     */
+    private Consumer<Long> _noop = x -> { };
+
+    @After
+    public void tearDown()
+    {
+        _dm.close();
+    }
+
+    /**
+     * Used to generate a date far in the past
+     * @return an epoch to milliseconds date in the past
+     */
+    private long getPastDate()
+    {
+        LocalDateTime now = LocalDateTime.now().minusYears(1);
+        return now.toEpochSecond(ZoneOffset.UTC)*1000;
+    }
+
+    /**
+     * Used to generate a date in the far future
+     * @return an epoch to milliseconds date in the future
+     */
+    private long getFutureDate()
+    {
+        LocalDateTime now = LocalDateTime.now().plusYears(10);
+        return now.toEpochSecond(ZoneOffset.UTC)*1000;
+    }
+
+    @Test
+    public void testSchedule()
+    {
+        // Act
+        long result1 = _dm.schedule(getFutureDate());
+        long result2 = _dm.schedule(getFutureDate());
+        long result3 = _dm.schedule(getFutureDate() + 1);
+
+        // Assert
+        assertEquals(result1 + 1, result2);
+        assertEquals((getFutureDate() + 1) << 20, result3);
+        assertEquals(3, _dm.size());
+    }
+
+    @Test
+    public void testCancel()
+    {
+        // Arrange
+        long result1 = _dm.schedule(getPastDate());
+        long result2 = _dm.schedule(getPastDate());
+
+        // Act
+        var success = _dm.cancel(result1);
+        var successAgain = _dm.cancel(result1);
+        var unknown = _dm.cancel(result2 + 1);
+
+        // Assert
+        assertTrue(success);
+        assertFalse(successAgain);
+        assertFalse(unknown);
+        assertEquals(1, _dm.size());
+    }
+
+    @Test
+    public void testPoll()
+    {
+        // Arrange
+        long now = Instant.now().toEpochMilli();
+        for (int i = 0; i < 1000; i++)
+            _dm.schedule(getPastDate() + i);
+        _dm.schedule(now);
+        _dm.schedule(now + 1);
+        _dm.schedule(getFutureDate());
+
+        // Act
+        int pollresult1 = _dm.poll(now, _noop, 600);
+        int pollresult2 = _dm.poll(now, _noop, 600);
+
+        // Assert
+        assertEquals(600, pollresult1);
+        assertEquals(401, pollresult2);
+        assertEquals(2, _dm.size());
+    }
+
+    /**
+     * Thousands of deadlines on the same millisecond, as for round timestamps
+     */
+    @Test
+    public void testDenseMillisecond()
+    {
+        // Arrange
+        long deadline = getPastDate();
+        List<Long> ids = new ArrayList<>();
+
+        // Act
+        for (int i = 0; i < 5000; i++)
+            ids.add(_dm.schedule(deadline));
+        for (int i = 0; i < 5000; i += 2)
+            _dm.cancel(ids.get(i));
+        int pollresult = _dm.poll(deadline, _noop, 10000);
+
+        // Assert
+        assertEquals(2500, pollresult);
+        assertEquals(0, _dm.size());
+    }
+
+    @Test
+    public void testNextDeadline()
+    {
+        // Arrange
+        long deadline = getFutureDate();
+        long empty = _dm.nextDeadline();
+
+        // Act
+        long result1 = _dm.schedule(deadline + 5);
+        _dm.schedule(deadline);
+        long next = _dm.nextDeadline();
+        _dm.poll(deadline, _noop, 10);
+
+        // Assert
+        assertEquals(Long.MAX_VALUE, empty);
+        assertEquals(deadline, next);
+        assertEquals(deadline + 5, _dm.nextDeadline());
+        assertEquals(result1 >> 20, _dm.nextDeadline());
+    }
+
+    @Test
+    public void testCountExpiringBefore()
+    {
+        // Arrange
+        long deadline = getPastDate();
+        for (int i = 0; i < 10000; i++)
+            _dm.schedule(deadline + i / 10);
+        long cancelled = _dm.schedule(deadline);
+        _dm.cancel(cancelled);
+
+        // Act
+        int none = _dm.countExpiringBefore(deadline);
+        int first = _dm.countExpiringBefore(deadline + 1);
+        int half = _dm.countExpiringBefore(deadline + 500);
+        int all = _dm.countExpiringBefore(Long.MAX_VALUE);
+
+        // Assert
+        assertEquals(0, none);
+        assertEquals(10, first);
+        assertEquals(5000, half);
+        assertEquals(10000, all);
+        assertEquals(10000, _dm.size());
+    }
+
+    @Test
+    public void testPeekExpired()
+    {
+        // Arrange
+        long deadline = getPastDate();
+        long result1 = _dm.schedule(deadline + 1);
+        long result2 = _dm.schedule(deadline);
+        _dm.schedule(getFutureDate());
+        List<Long> peeked = new ArrayList<>();
+
+        // Act
+        int peekresult = _dm.peekExpired(Instant.now().toEpochMilli(), peeked::add, 10);
+        int limited = _dm.peekExpired(Instant.now().toEpochMilli(), x -> { }, 1);
+
+        // Assert
+        assertEquals(2, peekresult);
+        assertEquals(List.of(result2, result1), peeked);
+        assertEquals(1, limited);
+        assertEquals(3, _dm.size());
+    }
+
+    /**
+     * The queries run under the read lock while other threads schedule and cancel
+     */
+    @Test
+    public void testQueriesUnderConcurrentWrites() throws ExecutionException, InterruptedException
+    {
+        // Arrange
+        long deadline = getFutureDate();
+        for (int i = 0; i < 1000; i++)
+            _dm.schedule(deadline);
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService service = Executors.newFixedThreadPool(8);
+
+        // Act
+        for (int i = 0; i < 4; i++) {
+            futures.add(service.submit(() -> {
+                for (int j = 0; j < 2000; j++)
+                    _dm.cancel(_dm.schedule(deadline + 1 + j));
+            }));
+            futures.add(service.submit(() -> {
+                for (int j = 0; j < 2000; j++) {
+                    assertEquals(1000, _dm.countExpiringBefore(deadline + 1));
+                    assertEquals(deadline, _dm.nextDeadline());
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        service.shutdown();
+
+        // Assert
+        assertEquals(1000, _dm.size());
+    }
+
+    /**
+     * We attempt different operations, trying to provoke collisions
+     */
+    @Test
+    public void multiThreadTest() throws ExecutionException, InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService service = Executors.newFixedThreadPool(16);
+
+        for (int i = 0; i < 2000; i++) {
+            futures.add(service.submit(() -> {
+                _dm.schedule(Instant.now().toEpochMilli());
+                _dm.poll(Instant.now().toEpochMilli(), _noop, 100);
+                long scheduled = _dm.schedule(Instant.now().toEpochMilli() + 100000);
+                assertTrue(_dm.cancel(scheduled));
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            // Will throw in case of multi concurrent access
+            future.get();
+        }
+        service.shutdown();
+
+        _dm.poll(Instant.now().toEpochMilli(), _noop, Integer.MAX_VALUE);
+        assertEquals(0, _dm.size());
+    }
+
+    /**
+     * Only the handlers still running after the timeout are interrupted and reported
+     */
+    @Test(timeout = 10000)
+    public void testHandlersTimeOut() throws InterruptedException
+    {
+        // Arrange
+        DeadlineBTreeManager dm = new DeadlineBTreeManager(100);
+        AtomicInteger finished = new AtomicInteger();
+        long deadline = getPastDate();
+        for (int i = 0; i < 10; i++)
+            dm.schedule(deadline);
+        dm.schedule(deadline + 1);
+
+        // Act
+        dm.poll(deadline, x -> finished.incrementAndGet(), 10);
+        dm.poll(deadline + 1, x -> {
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 10);
+        while (dm.timedOutHandlers() < 1)
+            Thread.sleep(10);
+        Thread.sleep(200);
+        dm.close();
+
+        // Assert
+        assertEquals(10, finished.get());
+        assertEquals(1, dm.timedOutHandlers());
+    }
+
+    /**
+     * A closed manager no longer fires, the expired deadlines stay registered
+     */
+    @Test
+    public void testPollAfterClose()
+    {
+        // Arrange
+        AtomicInteger fired = new AtomicInteger();
+        long deadline = getPastDate();
+        _dm.schedule(deadline);
+        _dm.schedule(deadline + 1);
+
+        // Act
+        _dm.close();
+        int result = _dm.poll(deadline + 1, x -> fired.incrementAndGet(), 10);
+
+        // Assert
+        assertEquals(0, result);
+        assertEquals(0, fired.get());
+        assertEquals(2, _dm.size());
+        assertEquals(2, _dm.countExpiringBefore(deadline + 2));
+    }
+}
@@ -0,0 +1,179 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class LongBPlusTreeTest {
+
+    /**
+     * Checks every key of the tree, in order, against the reference
+     */
+    private void assertSameKeys(TreeSet<Long> expected, LongBPlusTree tree)
+    {
+        List<Long> actual = new ArrayList<>();
+        tree.forEachInRange(Long.MIN_VALUE, Long.MAX_VALUE, actual::add);
+        assertEquals(new ArrayList<>(expected), actual);
+        assertEquals(expected.size(), tree.size());
+    }
+
+    @Test
+    public void testAddAndRemove()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+
+        // Act
+        boolean added = tree.add(5);
+        boolean addedAgain = tree.add(5);
+        boolean removed = tree.remove(5);
+        boolean removedAgain = tree.remove(5);
+
+        // Assert
+        assertTrue(added);
+        assertFalse(addedAgain);
+        assertTrue(removed);
+        assertFalse(removedAgain);
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testFirstOfEmptyTree()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+
+        // Act
+        tree.first();
+    }
+
+    /**
+     * Increasing keys, as deadlines mostly are, through several levels of splits, then removed from both ends
+     */
+    @Test
+    public void testIncreasingKeys()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+        TreeSet<Long> expected = new TreeSet<>();
+
+        // Act
+        for (long i = 0; i < 1_000_000; i++) {
+            tree.add(i << 20);
+            expected.add(i << 20);
+        }
+
+        // Assert
+        assertSameKeys(expected, tree);
+        assertEquals(0L, tree.first());
+        assertEquals(41L << 20, tree.lower((41L << 20) + 1, -1));
+        assertEquals(40L << 20, tree.lower(41L << 20, -1));
+        assertEquals(-1L, tree.lower(0, -1));
+
+        for (long i = 0; i < 300_000; i++) {
+            assertEquals(expected.pollFirst().longValue(), tree.pollFirst());
+            tree.remove(expected.pollLast());
+        }
+        assertSameKeys(expected, tree);
+    }
+
+    /**
+     * Random adds, removes and polls compared with a TreeSet, so every split, borrow and merge path runs
+     */
+    @Test
+    public void testRandomOperations()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+
+        // Act
+        for (int i = 0; i < 500_000; i++) {
+            long key = random.nextInt(50_000);
+            switch (random.nextInt(8)) {
+                case 0: case 1: case 2: case 3:
+                    assertEquals(expected.add(key), tree.add(key));
+                    break;
+                case 4: case 5:
+                    assertEquals(expected.remove(key), tree.remove(key));
+                    break;
+                case 6:
+                    Long lower = expected.lower(key);
+                    assertEquals(lower == null ? Long.MIN_VALUE : lower, tree.lower(key, Long.MIN_VALUE));
+                    assertEquals(expected.contains(key), tree.contains(key));
+                    assertEquals(expected.headSet(key).size(), tree.countBelow(key));
+                    break;
+                default:
+                    int maximum = random.nextInt(300);
+                    List<Long> polled = new ArrayList<>();
+                    int count = tree.pollBelow(key, maximum, polled::add);
+                    Iterator<Long> iterator = expected.headSet(key).iterator();
+                    for (int j = 0; j < count; j++) {
+                        assertEquals(iterator.next(), polled.get(j));
+                        iterator.remove();
+                    }
+                    assertTrue(count == maximum || !iterator.hasNext());
+            }
+        }
+
+        // Assert
+        assertSameKeys(expected, tree);
+        for (long key = 0; key < 50_000; key += 97)
+            assertEquals(expected.headSet(key).size(), tree.countBelow(key));
+    }
+
+    @Test
+    public void testCountAndPeekBelow()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+        for (long i = 0; i < 100_000; i++)
+            tree.add(i * 2);
+        tree.pollBelow(1_000, 100, x -> { });
+        List<Long> peeked = new ArrayList<>();
+
+        // Act
+        int count = tree.countBelow(100_001);
+        int countAll = tree.countBelow(Long.MAX_VALUE);
+        int countNone = tree.countBelow(200);
+        int peekCount = tree.peekBelow(100_001, 10, peeked::add);
+
+        // Assert
+        assertEquals(50_001 - 100, count);
+        assertEquals(100_000 - 100, countAll);
+        assertEquals(0, countNone);
+        assertEquals(10, peekCount);
+        assertEquals(List.of(200L, 202L, 204L, 206L, 208L, 210L, 212L, 214L, 216L, 218L), peeked);
+        assertEquals(100_000 - 100, tree.size());
+    }
+
+    @Test
+    public void testPollBelow()
+    {
+        // Arrange
+        LongBPlusTree tree = new LongBPlusTree();
+        for (long i = 0; i < 10_000; i++)
+            tree.add(i);
+        List<Long> polled = new ArrayList<>();
+
+        // Act
+        int first = tree.pollBelow(5_000, 1_000, polled::add);
+        int second = tree.pollBelow(5_000, 100_000, polled::add);
+        int none = tree.pollBelow(5_000, 100_000, polled::add);
+
+        // Assert
+        assertEquals(1_000, first);
+        assertEquals(4_000, second);
+        assertEquals(0, none);
+        assertEquals(5_000, polled.size());
+        assertEquals(4_999L, (long) polled.get(4_999));
+        assertEquals(5_000L, tree.first());
+        assertEquals(5_000, tree.size());
+    }
+}
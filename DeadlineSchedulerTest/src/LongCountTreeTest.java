@@ -0,0 +1,106 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class LongCountTreeTest {
+
+    /**
+     * Checks the count of every key, and the sums below them, against the reference
+     */
+    private void assertSameCounts(TreeMap<Long, Integer> expected, LongCountTree tree, long maximumKey)
+    {
+        int below = 0;
+        for (long key = 0; key <= maximumKey; key++) {
+            assertEquals(below, tree.countBelow(key));
+            int count = expected.getOrDefault(key, 0);
+            assertEquals(count, tree.count(key));
+            below += count;
+        }
+        assertEquals(expected.size(), tree.size());
+    }
+
+    @Test
+    public void testAddAndRemove()
+    {
+        // Arrange
+        LongCountTree tree = new LongCountTree();
+
+        // Act
+        tree.add(5, 3);
+        tree.add(7, 1);
+        tree.add(5, -3);
+
+        // Assert
+        assertEquals(0, tree.count(5));
+        assertEquals(1, tree.count(7));
+        assertEquals(1, tree.size());
+        assertEquals(0, tree.countBelow(7));
+        assertEquals(1, tree.countBelow(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCount()
+    {
+        // Arrange
+        LongCountTree tree = new LongCountTree();
+        tree.add(5, 1);
+
+        // Act
+        tree.add(5, -2);
+    }
+
+    /**
+     * Increasing keys, as deadlines mostly are, would make an unbalanced tree as deep as its number of keys
+     */
+    @Test
+    public void testIncreasingKeys()
+    {
+        // Arrange
+        LongCountTree tree = new LongCountTree();
+
+        // Act
+        for (long key = 0; key < 1_000_000; key++)
+            tree.add(key, 2);
+        for (long key = 0; key < 500_000; key++)
+            tree.add(key, -2);
+
+        // Assert
+        assertEquals(500_000, tree.size());
+        assertEquals(0, tree.countBelow(500_000));
+        assertEquals(2, tree.countBelow(500_001));
+        assertEquals(1_000_000, tree.countBelow(Long.MAX_VALUE));
+    }
+
+    /**
+     * Random updates compared with a TreeMap, so every rotation and removal path runs
+     */
+    @Test
+    public void testRandomOperations()
+    {
+        // Arrange
+        LongCountTree tree = new LongCountTree();
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        Random random = new Random(42);
+
+        // Act
+        for (int i = 0; i < 500_000; i++) {
+            long key = random.nextInt(5_000);
+            int count = expected.getOrDefault(key, 0);
+            int delta = random.nextInt(3) == 0 ? -random.nextInt(count + 1) : random.nextInt(10);
+            tree.add(key, delta);
+            if (count + delta == 0)
+                expected.remove(key);
+            else
+                expected.put(key, count + delta);
+
+            if (i % 1000 == 0)
+                assertEquals(expected.headMap(key).values().stream().mapToInt(x -> x).sum(), tree.countBelow(key));
+        }
+
+        // Assert
+        assertSameCounts(expected, tree, 5_000);
+    }
+}